@@ -0,0 +1,216 @@
+package com.moac.android.wallpaperdemo;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import com.moac.android.wallpaperdemo.api.ConditionalClient;
+import com.moac.android.wallpaperdemo.api.SoundCloudClient;
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import retrofit.RestAdapter;
+import retrofit.client.Client;
+import retrofit.client.Header;
+import retrofit.client.OkClient;
+import retrofit.client.Request;
+import retrofit.client.Response;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class FeedCursorTest extends AndroidTestCase {
+
+    static final int RESULT_COUNT = 10;
+    static final int LIMIT = 4;
+
+    MockWebServer server;
+    SharedPreferences preferences;
+    SoundCloudClient api;
+    List<Long> requestedOffsets;
+
+    @Override
+    public void setUp() throws IOException {
+        requestedOffsets = new ArrayList<Long>();
+        server = new MockWebServer();
+        // Pages through RESULT_COUNT results, like the API
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                long offset = Long.parseLong(getQueryParameter(request, "offset"));
+                long limit = Long.parseLong(getQueryParameter(request, "limit"));
+                synchronized (requestedOffsets) {
+                    requestedOffsets.add(offset);
+                }
+                return new MockResponse().setBody(createTracksJson(offset, Math.min(offset + limit, RESULT_COUNT)));
+            }
+        });
+        server.play();
+        api = new RestAdapter.Builder()
+                .setEndpoint("http://" + server.getHostName() + ":" + server.getPort())
+                .build()
+                .create(SoundCloudClient.class);
+        preferences = getContext().getSharedPreferences("feed_cursor_test", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+    }
+
+    @Override
+    public void tearDown() throws IOException {
+        server.shutdown();
+        preferences.edit().clear().commit();
+    }
+
+    public void test_cursorAdvancesThenWrapsWhenResultsRunOut() {
+        FeedCursor cursor = new FeedCursor(preferences);
+
+        assertThat(ids(nextPage(cursor, "techno"))).containsExactly(0L, 1L, 2L, 3L);
+        assertThat(ids(nextPage(cursor, "techno"))).containsExactly(4L, 5L, 6L, 7L);
+        assertThat(ids(nextPage(cursor, "techno"))).containsExactly(8L, 9L);
+        assertThat(ids(nextPage(cursor, "techno"))).containsExactly(0L, 1L, 2L, 3L);
+
+        assertThat(requestedOffsets).containsExactly(0L, 4L, 8L, 0L);
+    }
+
+    public void test_cursorIsPersisted() {
+        nextPage(new FeedCursor(preferences), "techno");
+
+        // As after a restart
+        FeedCursor restored = new FeedCursor(preferences);
+
+        assertThat(restored.getOffset("techno")).isEqualTo(LIMIT);
+        assertThat(ids(nextPage(restored, "techno"))).containsExactly(4L, 5L, 6L, 7L);
+    }
+
+    public void test_newSearchTermStartsFromTheBeginning() {
+        FeedCursor cursor = new FeedCursor(preferences);
+        nextPage(cursor, "techno");
+
+        assertThat(cursor.getOffset("house")).isEqualTo(0);
+        nextPage(cursor, "house");
+
+        assertThat(requestedOffsets).containsExactly(0L, 0L);
+        assertThat(cursor.getOffset("house")).isEqualTo(LIMIT);
+    }
+
+    public void test_pageWithNoBodyLeavesTheCursor() {
+        FeedCursor cursor = new FeedCursor(preferences);
+        nextPage(cursor, "techno");
+
+        // As for a page unchanged since it was last fetched
+        SoundCloudClient unchanged = new RestAdapter.Builder()
+                .setEndpoint("http://" + server.getHostName() + ":" + server.getPort())
+                .setClient(new Client() {
+                    @Override
+                    public Response execute(Request request) {
+                        return new Response(request.getUrl(), HttpURLConnection.HTTP_NO_CONTENT, "No Content",
+                                Collections.<Header>emptyList(), null);
+                    }
+                })
+                .build()
+                .create(SoundCloudClient.class);
+        List<Track> tracks = cursor.nextPageStream(unchanged, "techno", LIMIT).toList().toBlocking().single();
+
+        assertThat(tracks).isEmpty();
+        assertThat(cursor.getOffset("techno")).isEqualTo(LIMIT);
+    }
+
+    public void test_onlyTheFirstPageIsRevalidated() {
+        final List<String> validatorsSent = new ArrayList<String>();
+        final AtomicInteger version = new AtomicInteger(1);
+        // Each page has its own ETag, as the collection's Last-Modified would say nothing of a page
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                long offset = Long.parseLong(getQueryParameter(request, "offset"));
+                long limit = Long.parseLong(getQueryParameter(request, "limit"));
+                String eTag = "\"page-" + offset + "-v" + version.get() + "\"";
+                synchronized (requestedOffsets) {
+                    requestedOffsets.add(offset);
+                    validatorsSent.add(request.getHeader("If-None-Match"));
+                }
+                if (eTag.equals(request.getHeader("If-None-Match"))) {
+                    return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_MODIFIED);
+                }
+                return new MockResponse().setBody(createTracksJson(offset, Math.min(offset + limit, RESULT_COUNT)))
+                        .addHeader("ETag", eTag);
+            }
+        });
+        ConditionalClient client = new ConditionalClient(new OkClient(new OkHttpClient()));
+        SoundCloudClient conditionalApi = new RestAdapter.Builder()
+                .setEndpoint("http://" + server.getHostName() + ":" + server.getPort())
+                .setClient(client)
+                .build()
+                .create(SoundCloudClient.class);
+        FeedCursor cursor = new FeedCursor(preferences);
+
+        List<List<Long>> pages = new ArrayList<List<Long>>();
+        for (int i = 0; i < 5; i++) {
+            pages.add(ids(cursor.nextPageStream(conditionalApi, "techno", LIMIT).toList().toBlocking().single()));
+        }
+
+        // Walks the results once, then waits at the start until it changes
+        assertThat(requestedOffsets).containsExactly(0L, 4L, 8L, 0L, 0L);
+        assertThat(pages.get(2)).containsExactly(8L, 9L);
+        assertThat(pages.get(3)).isEmpty();
+        assertThat(pages.get(4)).isEmpty();
+        assertThat(validatorsSent).containsExactly(null, null, null, "\"page-0-v1\"", "\"page-0-v1\"");
+        assertThat(client.getNotModifiedCount()).isEqualTo(2);
+        assertThat(cursor.getOffset("techno")).isEqualTo(0);
+
+        version.incrementAndGet();
+
+        assertThat(ids(cursor.nextPageStream(conditionalApi, "techno", LIMIT).toList().toBlocking().single()))
+                .containsExactly(0L, 1L, 2L, 3L);
+        assertThat(cursor.getOffset("techno")).isEqualTo(LIMIT);
+    }
+
+    public void test_wrapsBeforeTheDeepestOffset() {
+        FeedCursor cursor = new FeedCursor(preferences);
+        cursor.advance("techno", FeedCursor.MAX_OFFSET - LIMIT - 1, LIMIT, LIMIT);
+        assertThat(cursor.getOffset("techno")).isEqualTo(0);
+    }
+
+    private List<Track> nextPage(FeedCursor cursor, String searchTerm) {
+        return cursor.nextPageStream(api, searchTerm, LIMIT).toList().toBlocking().single();
+    }
+
+    private static String getQueryParameter(RecordedRequest request, String name) {
+        String path = request.getPath();
+        for (String parameter : path.substring(path.indexOf('?') + 1).split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return parameter.substring(name.length() + 1);
+            }
+        }
+        throw new IllegalArgumentException("No " + name + " in: " + path);
+    }
+
+    private static String createTracksJson(long from, long to) {
+        StringBuilder json = new StringBuilder("[");
+        for (long id = from; id < to; id++) {
+            if (id > from) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(id).append(",\"title\":\"Track ").append(id).append("\"}");
+        }
+        return json.append(']').toString();
+    }
+
+    private static List<Long> ids(List<Track> tracks) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Track track : tracks) {
+            ids.add(track.getId());
+        }
+        return ids;
+    }
+}
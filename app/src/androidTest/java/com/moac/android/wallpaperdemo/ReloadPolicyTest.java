@@ -0,0 +1,99 @@
+package com.moac.android.wallpaperdemo;
+
+import android.test.AndroidTestCase;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class ReloadPolicyTest extends AndroidTestCase {
+
+    static final long RELOAD_RATE_SEC = 3600;
+
+    FakeConditions conditions;
+    ReloadPolicy policy;
+
+    @Override
+    public void setUp() {
+        conditions = new FakeConditions();
+        policy = new ReloadPolicy(conditions);
+        policy.start("techno", RELOAD_RATE_SEC);
+    }
+
+    public void test_startsAtTheReloadRate() {
+        assertThat(policy.getNextDelaySeconds()).isEqualTo(RELOAD_RATE_SEC);
+    }
+
+    public void test_backsOffExponentiallyToACeilingWhileUnchanged() {
+        policy.onReloaded(false);
+        assertThat(policy.getNextDelaySeconds()).isEqualTo(2 * RELOAD_RATE_SEC);
+        policy.onReloaded(false);
+        assertThat(policy.getNextDelaySeconds()).isEqualTo(4 * RELOAD_RATE_SEC);
+        policy.onReloaded(false);
+        assertThat(policy.getNextDelaySeconds()).isEqualTo(8 * RELOAD_RATE_SEC);
+        policy.onReloaded(false);
+        assertThat(policy.getNextDelaySeconds()).isEqualTo(8 * RELOAD_RATE_SEC);
+    }
+
+    public void test_ceilingNeverExceedsADay() {
+        policy.start("techno", 6 * 60 * 60);
+        for (int i = 0; i < 5; i++) {
+            policy.onReloaded(false);
+        }
+        assertThat(policy.getNextDelaySeconds()).isEqualTo(ReloadPolicy.MAX_DELAY_SEC);
+    }
+
+    public void test_changedResultResetsBackOff() {
+        policy.onReloaded(false);
+        policy.onReloaded(false);
+        policy.onReloaded(true);
+        assertThat(policy.getNextDelaySeconds()).isEqualTo(RELOAD_RATE_SEC);
+    }
+
+    public void test_speedsUpOnlyWhenUnmeteredAndCharging() {
+        conditions.unmetered = true;
+        assertThat(policy.getNextDelaySeconds()).isEqualTo(RELOAD_RATE_SEC);
+
+        conditions.charging = true;
+        assertThat(policy.getNextDelaySeconds()).isEqualTo(RELOAD_RATE_SEC / 2);
+
+        conditions.unmetered = false;
+        assertThat(policy.getNextDelaySeconds()).isEqualTo(RELOAD_RATE_SEC);
+    }
+
+    public void test_speedUpHasAFloor() {
+        conditions.unmetered = true;
+        conditions.charging = true;
+        policy.start("techno", 90);
+        assertThat(policy.getNextDelaySeconds()).isEqualTo(ReloadPolicy.MIN_DELAY_SEC);
+        // Unless the user asked for faster still
+        policy.start("techno", 30);
+        assertThat(policy.getNextDelaySeconds()).isEqualTo(30);
+    }
+
+    public void test_newSearchTermResetsBackOff() {
+        policy.onReloaded(false);
+        policy.onReloaded(false);
+
+        policy.start("techno", RELOAD_RATE_SEC);
+        assertThat(policy.getUnchangedCount()).isEqualTo(2);
+
+        policy.start("house", RELOAD_RATE_SEC);
+        assertThat(policy.getUnchangedCount()).isEqualTo(0);
+        assertThat(policy.getNextDelaySeconds()).isEqualTo(RELOAD_RATE_SEC);
+    }
+
+    static class FakeConditions implements ReloadPolicy.Conditions {
+        volatile boolean unmetered;
+        volatile boolean charging;
+
+        @Override
+        public boolean isUnmetered() {
+            return unmetered;
+        }
+
+        @Override
+        public boolean isCharging() {
+            return charging;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.moac.android.wallpaperdemo;
+
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class RetryBackoffTest extends AndroidTestCase {
+
+    public void test_delaysDoubleWithinJitterUpToTheCeiling() {
+        RetryBackoff backoff = new RetryBackoff(1000, 8000, new Random(42));
+        long[] ceilings = {1000, 2000, 4000, 8000, 8000};
+        for (long ceiling : ceilings) {
+            long delay = backoff.nextDelayMs();
+            assertThat(delay).isGreaterThanOrEqualTo(ceiling / 2).isLessThanOrEqualTo(ceiling);
+        }
+        assertThat(backoff.getAttemptCount()).isEqualTo(ceilings.length);
+    }
+
+    public void test_jitterSpansTheUpperHalf() {
+        assertThat(new RetryBackoff(1000, 8000, new FixedRandom(0)).nextDelayMs()).isEqualTo(500);
+        assertThat(new RetryBackoff(1000, 8000, new FixedRandom(0.5)).nextDelayMs()).isEqualTo(750);
+        assertThat(new RetryBackoff(1000, 8000, new FixedRandom(0.999)).nextDelayMs()).isEqualTo(999);
+    }
+
+    public void test_resetStartsAgainFromTheBase() {
+        RetryBackoff backoff = new RetryBackoff(1000, 8000, new Random(42));
+        for (int i = 0; i < 4; i++) {
+            backoff.nextDelayMs();
+        }
+        backoff.reset();
+        assertThat(backoff.nextDelayMs()).isLessThanOrEqualTo(1000);
+    }
+
+    public void test_manyAttemptsDoNotOverflow() {
+        RetryBackoff backoff = new RetryBackoff(2000, 5 * 60 * 1000, new Random(42));
+        for (int i = 0; i < 100; i++) {
+            assertThat(backoff.nextDelayMs()).isGreaterThan(0).isLessThanOrEqualTo(5 * 60 * 1000);
+        }
+    }
+
+    static class FixedRandom extends Random {
+        private static final long serialVersionUID = 1L;
+
+        final double value;
+
+        FixedRandom(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+}
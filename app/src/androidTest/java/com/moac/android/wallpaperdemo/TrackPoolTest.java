@@ -0,0 +1,133 @@
+package com.moac.android.wallpaperdemo;
+
+import android.test.AndroidTestCase;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class TrackPoolTest extends AndroidTestCase {
+
+    public void test_cyclesThroughTracksInOrder() {
+        TrackPool pool = new TrackPool(3);
+        pool.publish(createTrack(1));
+        pool.publish(createTrack(2));
+
+        assertThat(pool.next().getId()).isEqualTo(1);
+        assertThat(pool.next().getId()).isEqualTo(2);
+        assertThat(pool.next().getId()).isEqualTo(1);
+    }
+
+    public void test_emptyPoolReturnsNull() {
+        TrackPool pool = new TrackPool(3);
+        assertThat(pool.isEmpty()).isTrue();
+        assertThat(pool.next()).isNull();
+    }
+
+    public void test_publishingWhenFullEvictsOldest() {
+        TrackPool pool = new TrackPool(2);
+        assertThat(pool.publish(createTrack(1))).isNull();
+        assertThat(pool.publish(createTrack(2))).isNull();
+
+        Track evicted = pool.publish(createTrack(3));
+
+        assertThat(evicted.getId()).isEqualTo(1);
+        assertThat(pool.size()).isEqualTo(2);
+        assertThat(pool.contains(1)).isFalse();
+        assertThat(pool.contains(3)).isTrue();
+        assertThat(ids(pool.getRecent(2))).containsExactly(2L, 3L);
+    }
+
+    public void test_concurrentPublishAndNext() throws InterruptedException {
+        final int capacity = 16;
+        final int producers = 4;
+        final int tracksPerProducer = 5000;
+        final int consumers = 4;
+        final TrackPool pool = new TrackPool(capacity);
+
+        // Counts publishes once they've returned, after which the pool is never without a track
+        final AtomicInteger publishedCount = new AtomicInteger();
+
+        final AtomicLong nextId = new AtomicLong();
+        final AtomicInteger evictedCount = new AtomicInteger();
+        final AtomicInteger nullsAfterReady = new AtomicInteger();
+        final ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch producersDone = new CountDownLatch(producers);
+        final CountDownLatch consumersDone = new CountDownLatch(consumers);
+
+        for (int p = 0; p < producers; p++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < tracksPerProducer; i++) {
+                            if (pool.publish(createTrack(nextId.incrementAndGet())) != null) {
+                                evictedCount.incrementAndGet();
+                            }
+                            publishedCount.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    } finally {
+                        producersDone.countDown();
+                    }
+                }
+            }).start();
+        }
+        for (int c = 0; c < consumers; c++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (producersDone.getCount() > 0) {
+                            boolean ready = publishedCount.get() > 0;
+                            if (pool.next() == null && ready) {
+                                nullsAfterReady.incrementAndGet();
+                            }
+                            assertThat(pool.size()).isLessThanOrEqualTo(capacity);
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    } finally {
+                        consumersDone.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        start.countDown();
+        assertThat(producersDone.await(30, TimeUnit.SECONDS)).isTrue();
+        assertThat(consumersDone.await(30, TimeUnit.SECONDS)).isTrue();
+
+        final int published = producers * tracksPerProducer;
+        assertThat(errors).isEmpty();
+        assertThat(nullsAfterReady.get()).isEqualTo(0);
+        assertThat(evictedCount.get()).isEqualTo(published - capacity);
+        assertThat(pool.size()).isEqualTo(capacity);
+        assertThat(pool.getRecent(capacity)).hasSize(capacity).doesNotContainNull();
+    }
+
+    private static Track createTrack(long id) {
+        return new Track(id, "Track " + id, "http://soundcloud.com/" + id);
+    }
+
+    private static List<Long> ids(List<Track> tracks) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Track track : tracks) {
+            ids.add(track.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,184 @@
+package com.moac.android.wallpaperdemo;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import com.moac.android.wallpaperdemo.api.SoundCloudClient;
+import com.moac.android.wallpaperdemo.api.WaveformSource;
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.gfx.DecodeSize;
+import com.moac.android.wallpaperdemo.store.WaveformStore;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import retrofit.RestAdapter;
+import rx.Observable;
+import rx.Subscription;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class TrackProviderTest extends AndroidTestCase {
+
+    static final String TRACKS_JSON = "[{\"id\":1,\"title\":\"One\"},{\"id\":2,\"title\":\"Two\"}]";
+    static final long RELOAD_PERIOD_SEC = 3600;
+    // Well beyond the longest first retry, well short of a reload period
+    static final long NO_RETRY_WAIT_MS = 2500;
+
+    MockWebServer server;
+    ConcurrentLinkedQueue<MockResponse> responses;
+    FakeConnectivitySource connectivity;
+    SharedPreferences preferences;
+    File storeFile;
+    TrackProvider provider;
+    Subscription subscription;
+
+    @Override
+    public void setUp() throws IOException {
+        responses = new ConcurrentLinkedQueue<MockResponse>();
+        connectivity = new FakeConnectivitySource();
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                MockResponse response = responses.poll();
+                return response != null ? response : new MockResponse().setBody(TRACKS_JSON);
+            }
+        });
+        server.play();
+        SoundCloudClient api = new RestAdapter.Builder()
+                .setEndpoint("http://" + server.getHostName() + ":" + server.getPort())
+                .build()
+                .create(SoundCloudClient.class);
+        WaveformSource waveformSource = new WaveformSource() {
+            @Override
+            public float[] load(Track track, DecodeSize decodeSize) {
+                return new float[]{0.5f, 1f};
+            }
+        };
+        preferences = getContext().getSharedPreferences("track_provider_test", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+        storeFile = File.createTempFile("track_provider_test", ".store");
+        provider = new TrackProvider(connectivity, api, waveformSource, new WaveformStore(storeFile, 64 * 1024),
+                new FeedCursor(preferences), new ReloadPolicy(new ReloadPolicyTest.FakeConditions()));
+        provider.setScheduler(Schedulers.newThread());
+    }
+
+    @Override
+    public void tearDown() throws IOException {
+        if (subscription != null) {
+            subscription.unsubscribe();
+        }
+        server.shutdown();
+        preferences.edit().clear().commit();
+        storeFile.delete();
+    }
+
+    public void test_offlineWaitsForConnectivityWithoutPolling() throws InterruptedException {
+        connectivity.connected = false;
+        subscription = provider.loadTracksPeriodically("techno", 4, RELOAD_PERIOD_SEC);
+        Thread.sleep(NO_RETRY_WAIT_MS);
+
+        assertThat(server.getRequestCount()).isEqualTo(0);
+        // Checked once on loading, once more in case the change was missed; never again
+        assertThat(connectivity.checkCount.get()).isLessThanOrEqualTo(2);
+
+        long restoredAt = System.nanoTime();
+        connectivity.setConnected(true);
+        awaitFirstTrack();
+
+        assertThat(server.getRequestCount()).isEqualTo(1);
+        assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - restoredAt)).isLessThan(5);
+    }
+
+    public void test_whenReadyTakenBeforeAResizeStillEmits() {
+        // Taken while the pool still has its initial capacity, which loading replaces
+        Observable<Track> ready = provider.whenReady();
+        subscription = provider.loadTracksPeriodically("techno", 4, RELOAD_PERIOD_SEC);
+
+        assertThat(ready.timeout(5, TimeUnit.SECONDS).toBlocking().single()).isNotNull();
+        assertThat(provider.getNextTrack()).isNotNull();
+    }
+
+    public void test_whenReadyEmitsTheFirstTrackToLateSubscribers() {
+        subscription = provider.loadTracksPeriodically("techno", 4, RELOAD_PERIOD_SEC);
+        awaitFirstTrack();
+
+        List<Track> ready = provider.whenReady().toList().toBlocking().single();
+
+        assertThat(ready).hasSize(1);
+        assertThat(ready.get(0).getId()).isIn(1L, 2L);
+    }
+
+    public void test_failedFetchIsRetriedWithinSeconds() {
+        responses.add(new MockResponse().setResponseCode(500));
+        long start = System.nanoTime();
+        subscription = provider.loadTracksPeriodically("techno", 4, RELOAD_PERIOD_SEC);
+        awaitFirstTrack();
+
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)).isLessThan(5);
+    }
+
+    public void test_failureWhileOfflineWaitsForConnectivity() throws InterruptedException {
+        // The connection drops as the first request is made
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (connectivity.connected && server.getRequestCount() == 1) {
+                    connectivity.connected = false;
+                    return new MockResponse().setResponseCode(503);
+                }
+                return new MockResponse().setBody(TRACKS_JSON);
+            }
+        });
+        subscription = provider.loadTracksPeriodically("techno", 4, RELOAD_PERIOD_SEC);
+        Thread.sleep(NO_RETRY_WAIT_MS);
+
+        assertThat(server.getRequestCount()).isEqualTo(1);
+        assertThat(provider.getNextTrack()).isNull();
+
+        connectivity.setConnected(true);
+        awaitFirstTrack();
+        assertThat(server.getRequestCount()).isEqualTo(2);
+    }
+
+    private void awaitFirstTrack() {
+        Track track = provider.whenReady().timeout(5, TimeUnit.SECONDS).toBlocking().single();
+        assertThat(track).isNotNull();
+    }
+
+    static class FakeConnectivitySource implements ConnectivitySource {
+        final PublishSubject<Boolean> changes = PublishSubject.create();
+        final AtomicInteger checkCount = new AtomicInteger();
+        volatile boolean connected = true;
+
+        void setConnected(boolean isConnected) {
+            connected = isConnected;
+            changes.onNext(isConnected);
+        }
+
+        @Override
+        public boolean isConnected() {
+            checkCount.incrementAndGet();
+            return connected;
+        }
+
+        @Override
+        public Observable<Boolean> changes() {
+            return changes;
+        }
+    }
+}
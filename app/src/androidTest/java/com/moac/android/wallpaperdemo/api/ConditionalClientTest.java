@@ -0,0 +1,154 @@
+package com.moac.android.wallpaperdemo.api;
+
+import android.test.AndroidTestCase;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.gfx.DecodeSize;
+import com.moac.android.wallpaperdemo.observable.TrackObservables;
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import retrofit.RestAdapter;
+import retrofit.client.Client;
+import retrofit.client.OkClient;
+import rx.functions.Action1;
+
+import static com.moac.android.wallpaperdemo.util.Streams.closeQuietly;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class ConditionalClientTest extends AndroidTestCase {
+
+    static final String ETAG_VALUE = "\"tracks-v1\"";
+    static final String LAST_MODIFIED_VALUE = "Sat, 05 Jul 2014 15:43:01 GMT";
+
+    MockWebServer server;
+    String tracksJson;
+    AtomicInteger parsedCount;
+    AtomicInteger waveformLoads;
+    WaveformSource waveformSource;
+
+    @Override
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.play();
+        tracksJson = readTestDataFile("tracks.json");
+        parsedCount = new AtomicInteger();
+        waveformLoads = new AtomicInteger();
+        waveformSource = new WaveformSource() {
+            @Override
+            public float[] load(Track track, DecodeSize decodeSize) {
+                waveformLoads.incrementAndGet();
+                return new float[]{0.5f, 1f};
+            }
+        };
+    }
+
+    @Override
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    public void test_notModifiedPollIsNotParsedOrLoaded() throws InterruptedException {
+        server.enqueue(new MockResponse().setBody(tracksJson).addHeader("ETag", ETAG_VALUE));
+        server.enqueue(new MockResponse().setResponseCode(304).addHeader("ETag", ETAG_VALUE));
+        ConditionalClient client = new ConditionalClient(new OkClient(new OkHttpClient()));
+        SoundCloudClient api = createApi(client);
+
+        assertThat(poll(api)).hasSize(4);
+        assertThat(parsedCount.get()).isEqualTo(4);
+        assertThat(waveformLoads.get()).isEqualTo(4);
+
+        assertThat(poll(api)).isEmpty();
+        assertThat(parsedCount.get()).isEqualTo(4);
+        assertThat(waveformLoads.get()).isEqualTo(4);
+        assertThat(client.getNotModifiedCount()).isEqualTo(1);
+
+        assertThat(server.takeRequest().getHeader("If-None-Match")).isNull();
+        assertThat(server.takeRequest().getHeader("If-None-Match")).isEqualTo(ETAG_VALUE);
+    }
+
+    public void test_lastModifiedIsSentAsIfModifiedSince() throws InterruptedException {
+        server.enqueue(new MockResponse().setBody(tracksJson).addHeader("Last-Modified", LAST_MODIFIED_VALUE));
+        server.enqueue(new MockResponse().setResponseCode(304));
+        SoundCloudClient api = createApi(new ConditionalClient(new OkClient(new OkHttpClient())));
+
+        poll(api);
+        assertThat(poll(api)).isEmpty();
+
+        server.takeRequest();
+        RecordedRequest conditional = server.takeRequest();
+        assertThat(conditional.getHeader("If-Modified-Since")).isEqualTo(LAST_MODIFIED_VALUE);
+        assertThat(conditional.getHeader("If-None-Match")).isNull();
+    }
+
+    public void test_changedTracksAreParsedAgain() {
+        server.enqueue(new MockResponse().setBody(tracksJson).addHeader("ETag", ETAG_VALUE));
+        server.enqueue(new MockResponse().setBody(tracksJson).addHeader("ETag", "\"tracks-v2\""));
+        SoundCloudClient api = createApi(new ConditionalClient(new OkClient(new OkHttpClient())));
+
+        poll(api);
+        assertThat(poll(api)).hasSize(4);
+        assertThat(parsedCount.get()).isEqualTo(8);
+    }
+
+    public void test_diskCacheRevalidatesAfterRestart() throws IOException {
+        File cacheDir = new File(System.getProperty("java.io.tmpdir"), "conditional-client-test-" + System.nanoTime());
+        server.enqueue(new MockResponse().setBody(tracksJson).addHeader("ETag", ETAG_VALUE)
+                .addHeader("Cache-Control", "private, max-age=0, must-revalidate"));
+        server.enqueue(new MockResponse().setResponseCode(304).addHeader("ETag", ETAG_VALUE));
+
+        OkHttpClient okHttpClient = new OkHttpClient().setCache(new Cache(cacheDir, 1024 * 1024));
+        poll(createApi(new ConditionalClient(new OkClient(okHttpClient))));
+        // A new process has no validators, so the cache revalidates its copy and serves that
+        List<Track> tracks = poll(createApi(new ConditionalClient(new OkClient(okHttpClient))));
+
+        assertThat(tracks).hasSize(4);
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        assertThat(okHttpClient.getCache().getHitCount()).isEqualTo(1);
+    }
+
+    private SoundCloudClient createApi(Client client) {
+        return new RestAdapter.Builder()
+                .setEndpoint("http://" + server.getHostName() + ":" + server.getPort())
+                .setClient(client)
+                .build()
+                .create(SoundCloudClient.class);
+    }
+
+    private List<Track> poll(SoundCloudClient api) {
+        return TrackObservables.fromStream(TrackObservables.fromResponse(api.streamTracks("techno", 4, 0)).doOnNext(new Action1<Track>() {
+            @Override
+            public void call(Track track) {
+                parsedCount.incrementAndGet();
+            }
+        }), waveformSource, null, 1, null).toList().toBlocking().single();
+    }
+
+    private String readTestDataFile(String filename) throws IOException {
+        InputStream inputStream = getContext().getClassLoader().getResourceAsStream(filename);
+        if (inputStream == null)
+            throw new IllegalArgumentException("Test data file not found on classpath: " + filename);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+}
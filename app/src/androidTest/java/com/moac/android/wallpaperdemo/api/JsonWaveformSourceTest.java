@@ -0,0 +1,143 @@
+package com.moac.android.wallpaperdemo.api;
+
+import android.test.AndroidTestCase;
+
+import com.google.gson.Gson;
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.gfx.DecodeSize;
+import com.moac.android.wallpaperdemo.gfx.PngWaveformDecoder;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static com.google.common.io.Closeables.closeQuietly;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class JsonWaveformSourceTest extends AndroidTestCase {
+
+    MockWebServer server;
+    JsonWaveformSource source;
+    Track track;
+
+    @Override
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.play();
+        source = new JsonWaveformSource(new OkHttpClient(), "http://" + server.getHostName() + ":" + server.getPort());
+        track = new Gson().fromJson("{\"id\":1,\"title\":\"Test\",\"waveform_url\":\"https://w1.sndcdn.com/sPNv4LFoR9b7_m.png\"}", Track.class);
+    }
+
+    @Override
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    public void test_requestsJsonAlongsidePng() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"width\":2,\"height\":10,\"samples\":[5,10]}"));
+        source.load(track, null);
+        assertThat(server.takeRequest().getPath()).isEqualTo("/sPNv4LFoR9b7_m.json");
+    }
+
+    public void test_samplesMatchPngFixture() throws IOException {
+        server.enqueue(new MockResponse().setBody(new String(readTestDataFile("waveform.json"), "UTF-8")));
+        float[] samples = source.load(track, new DecodeSize(107, 640));
+        float[] expected = new PngWaveformDecoder().transform(getContext().getClassLoader().getResourceAsStream("waveform.png"));
+
+        // Decode size is ignored, JSON has its own resolution
+        assertThat(samples).hasSize(expected.length);
+        for (int i = 0; i < samples.length; i++) {
+            assertThat(Math.abs(samples[i] - expected[i])).as("column: " + i).isLessThanOrEqualTo(2f / 140f);
+        }
+    }
+
+    public void test_samplesBeforeWidthAreParsed() throws IOException {
+        server.enqueue(new MockResponse().setBody("{\"samples\":[0,5,10],\"extra\":{\"a\":[1]},\"height\":10}"));
+        assertThat(source.load(track, null)).isEqualTo(new float[]{0f, 0.5f, 1f});
+    }
+
+    public void test_httpErrorThrows() {
+        server.enqueue(new MockResponse().setResponseCode(404));
+        try {
+            source.load(track, null);
+            fail("404 should throw IOException");
+        } catch (IOException e) {
+            // Pass!
+        }
+    }
+
+    public void test_malformedJsonThrows() {
+        server.enqueue(new MockResponse().setBody("[1,2,3]"));
+        try {
+            source.load(track, null);
+            fail("Malformed JSON should throw IOException");
+        } catch (IOException e) {
+            // Pass!
+        }
+    }
+
+    public void test_stringWhereNumberExpectedThrows() {
+        String[] bodies = {
+                "{\"width\":2,\"height\":10,\"samples\":[2,\"x\"]}",
+                "{\"width\":\"abc\",\"height\":10,\"samples\":[2,4]}"};
+        for (String body : bodies) {
+            server.enqueue(new MockResponse().setBody(body));
+            try {
+                source.load(track, null);
+                fail("Non-numeric value should throw IOException: " + body);
+            } catch (IOException e) {
+                // Pass!
+            }
+        }
+    }
+
+    public void test_implausibleWidthIsNotTrusted() throws IOException {
+        server.enqueue(new MockResponse().setBody("{\"width\":2000000000,\"height\":10,\"samples\":[5,10]}"));
+        assertThat(source.load(track, null)).isEqualTo(new float[]{0.5f, 1f});
+    }
+
+    public void test_fallbackUsedWhenJsonIsMalformed() throws IOException {
+        server.enqueue(new MockResponse().setBody("{\"width\":2,\"height\":10,\"samples\":[2,\"x\"]}"));
+        final float[] fallbackData = {0.25f};
+        WaveformSource fallback = new WaveformSource() {
+            @Override
+            public float[] load(Track track, DecodeSize decodeSize) {
+                return fallbackData;
+            }
+        };
+        assertThat(new FallbackWaveformSource(source, fallback).load(track, null)).isSameAs(fallbackData);
+    }
+
+    public void test_fallbackUsedWhenJsonFails() throws IOException {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        final float[] fallbackData = {0.25f};
+        WaveformSource fallback = new WaveformSource() {
+            @Override
+            public float[] load(Track track, DecodeSize decodeSize) {
+                return fallbackData;
+            }
+        };
+        assertThat(new FallbackWaveformSource(source, fallback).load(track, null)).isSameAs(fallbackData);
+    }
+
+    private byte[] readTestDataFile(String filename) throws IOException {
+        InputStream inputStream = getContext().getClassLoader().getResourceAsStream(filename);
+        if (inputStream == null)
+            throw new IllegalArgumentException("Test data file not found on classpath: " + filename);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.moac.android.wallpaperdemo.api;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+import com.google.gson.Gson;
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.gfx.BitmapProcessor;
+import com.moac.android.wallpaperdemo.gfx.TrackDrawer;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.picasso.Picasso;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static com.google.common.io.Closeables.closeQuietly;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class PngWaveformSourceTest extends AndroidTestCase {
+
+    MockWebServer server;
+    Picasso picasso;
+    Track track;
+    Bitmap decoded;
+
+    @Override
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.play();
+        picasso = new Picasso.Builder(getContext()).build();
+        String waveformUrl = "http://" + server.getHostName() + ":" + server.getPort() + "/waveform.png";
+        track = new Gson().fromJson("{\"id\":1,\"title\":\"Test\",\"waveform_url\":\"" + waveformUrl + "\"}", Track.class);
+    }
+
+    @Override
+    public void tearDown() throws IOException {
+        picasso.shutdown();
+        server.shutdown();
+    }
+
+    public void test_decodesAtFullWidthAndCappedHeightAsAlpha8() throws IOException {
+        server.enqueue(new MockResponse().setBody(readTestDataFile("waveform.png")));
+        PngWaveformSource source = new PngWaveformSource(picasso, new BitmapProcessor() {
+            @Override
+            public float[] transform(Bitmap bitmap) {
+                decoded = bitmap;
+                return new float[bitmap.getWidth()];
+            }
+        });
+
+        // As for a 1080x1920 surface
+        source.load(track, new TrackDrawer(10, 10).getDecodeSize(1920));
+
+        // Every column of the 1800x280 source, for the pyramid to reduce; half the rows
+        assertThat(decoded.getWidth()).isEqualTo(1800);
+        assertThat(decoded.getHeight()).isEqualTo(140);
+        assertThat(decoded.getConfig()).isEqualTo(Bitmap.Config.ALPHA_8);
+    }
+
+    private byte[] readTestDataFile(String filename) throws IOException {
+        InputStream inputStream = getContext().getClassLoader().getResourceAsStream(filename);
+        if (inputStream == null)
+            throw new IllegalArgumentException("Test data file not found on classpath: " + filename);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+}
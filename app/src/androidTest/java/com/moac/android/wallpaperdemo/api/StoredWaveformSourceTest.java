@@ -0,0 +1,78 @@
+package com.moac.android.wallpaperdemo.api;
+
+import android.test.AndroidTestCase;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.gfx.DecodeSize;
+import com.moac.android.wallpaperdemo.store.WaveformStore;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class StoredWaveformSourceTest extends AndroidTestCase {
+
+    File file;
+    WaveformStore store;
+    CountingSource network;
+    StoredWaveformSource source;
+
+    @Override
+    public void setUp() throws IOException {
+        file = File.createTempFile("waveforms", ".store");
+        store = new WaveformStore(file, 1024 * 1024);
+        network = new CountingSource();
+        source = new StoredWaveformSource(store, network);
+    }
+
+    @Override
+    public void tearDown() {
+        store.close();
+        file.delete();
+    }
+
+    public void test_secondLoadIsFromStore() throws IOException {
+        Track track = new Track(1, "One", null);
+        float[] first = source.load(track, null);
+        float[] second = source.load(track, null);
+
+        assertThat(network.loads).isEqualTo(1);
+        assertThat(second).isEqualTo(first);
+    }
+
+    public void test_storedAfterRestart() throws IOException {
+        source.load(new Track(1, "One", null), null);
+        store.close();
+        store = new WaveformStore(file, 1024 * 1024);
+        source = new StoredWaveformSource(store, network);
+
+        source.load(new Track(1, "One", null), null);
+        assertThat(network.loads).isEqualTo(1);
+    }
+
+    public void test_failedLoadIsNotStored() throws IOException {
+        network.fail = true;
+        try {
+            source.load(new Track(1, "One", null), null);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+        assertThat(store.contains(1)).isFalse();
+    }
+
+    // Quantized values, so they survive storage exactly
+    static class CountingSource implements WaveformSource {
+        int loads;
+        boolean fail;
+
+        @Override
+        public float[] load(Track track, DecodeSize decodeSize) throws IOException {
+            loads++;
+            if (fail)
+                throw new IOException("Network unavailable");
+            return new float[]{0f, 51 / 255f, 1f};
+        }
+    }
+}
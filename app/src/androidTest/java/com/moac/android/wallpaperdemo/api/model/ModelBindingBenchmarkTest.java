@@ -0,0 +1,105 @@
+package com.moac.android.wallpaperdemo.api.model;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares reflective Gson mapping with {@link TrackReader}, which the tracks are parsed
+ * with, on the fixtures used by {@link ModelDeserializationTest}, logging first parse latency
+ * and parse throughput. Timings depend on the device, so aren't asserted on; only that both
+ * produce the same tracks.
+ */
+// Sadly not using JUnit 4
+public class ModelBindingBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = ModelBindingBenchmarkTest.class.getSimpleName();
+
+    static final int WARM_UP_ITERATIONS = 200;
+    static final int ITERATIONS = 2000;
+    static final Type TRACKS_TYPE = new TypeToken<List<Track>>() {
+    }.getType();
+
+    String tracksJson;
+    String trackJson;
+
+    @Override
+    public void setUp() {
+        tracksJson = ModelDeserializationTest.readTestDataFile(getContext(), "tracks.json");
+        trackJson = ModelDeserializationTest.readTestDataFile(getContext(), "track_single.json");
+    }
+
+    public void test_firstParseLatency() throws IOException {
+        // A fresh Gson, so the reflective path inspects the classes again
+        Gson gson = new GsonBuilder().create();
+        long start = System.nanoTime();
+        Track reflective = gson.fromJson(trackJson, Track.class);
+        long reflectiveNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Track read = TrackReader.readTrack(new JsonReader(new StringReader(trackJson)));
+        long readerNanos = System.nanoTime() - start;
+
+        assertThat(reflective.getId()).isEqualTo(99801677l);
+        TrackReaderTest.assertSameTrack(read, reflective);
+        Log.i(TAG, String.format("First parse - reflective: %.2fms, reader: %.2fms",
+                reflectiveNanos / 1e6, readerNanos / 1e6));
+    }
+
+    public void test_parseThroughput() throws IOException {
+        Gson gson = new GsonBuilder().create();
+        List<Track> reflectiveTracks = null;
+        List<Track> readTracks = null;
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            reflectiveTracks = parseReflective(gson);
+            readTracks = parseWithReader();
+        }
+        assertThat(readTracks).hasSize(4).hasSameSizeAs(reflectiveTracks);
+        for (int i = 0; i < readTracks.size(); i++) {
+            TrackReaderTest.assertSameTrack(readTracks.get(i), reflectiveTracks.get(i));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parseReflective(gson);
+        }
+        double reflective = ITERATIONS * 4 / ((System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parseWithReader();
+        }
+        double reader = ITERATIONS * 4 / ((System.nanoTime() - start) / 1e9);
+
+        Log.i(TAG, String.format("Throughput - reflective: %.0f tracks/s, reader: %.0f tracks/s (%.1fx)",
+                reflective, reader, reader / reflective));
+    }
+
+    private List<Track> parseReflective(Gson gson) {
+        return gson.fromJson(tracksJson, TRACKS_TYPE);
+    }
+
+    // As TrackObservables.fromResponse() reads the response
+    private List<Track> parseWithReader() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(tracksJson));
+        List<Track> tracks = new ArrayList<Track>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            tracks.add(TrackReader.readTrack(reader));
+        }
+        reader.endArray();
+        return tracks;
+    }
+}
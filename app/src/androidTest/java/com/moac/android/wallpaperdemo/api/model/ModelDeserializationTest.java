@@ -62,7 +62,7 @@ public class ModelDeserializationTest extends AndroidTestCase {
         assertThat(user.getUri()).isEqualTo("https://api.soundcloud.com/users/18402377");
     }
 
-    private static String readTestDataFile(Context context, String filename) {
+    static String readTestDataFile(Context context, String filename) {
         InputStream inputStream = context.getClassLoader().getResourceAsStream(filename);
 
         if (inputStream == null)
@@ -0,0 +1,85 @@
+package com.moac.android.wallpaperdemo.api.model;
+
+import android.test.AndroidTestCase;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.moac.android.wallpaperdemo.util.Streams.closeQuietly;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class TrackReaderTest extends AndroidTestCase {
+
+    public void test_readsTheSameTracksAsGson() throws IOException {
+        List<Track> expected = new Gson().fromJson(new InputStreamReader(open("tracks.json"), "UTF-8"),
+                new TypeToken<List<Track>>() {
+                }.getType());
+
+        List<Track> actual = new ArrayList<Track>();
+        JsonReader reader = new JsonReader(new InputStreamReader(open("tracks.json"), "UTF-8"));
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                actual.add(TrackReader.readTrack(reader));
+            }
+            reader.endArray();
+        } finally {
+            closeQuietly(reader);
+        }
+
+        assertThat(actual).hasSize(expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameTrack(actual.get(i), expected.get(i));
+        }
+    }
+
+    public void test_singleTrack() throws IOException {
+        Track track = TrackReader.readTrack(new JsonReader(new InputStreamReader(open("track_single.json"), "UTF-8")));
+
+        assertThat(track.getId()).isEqualTo(99801677l);
+        assertThat(track.getTitle()).isEqualTo("Dj Niko Force");
+        assertThat(track.getWaveformUrl()).isEqualTo("https://w1.sndcdn.com/sPNv4LFoR9b7_m.png");
+        assertThat(track.getPermalinkUrl()).isEqualTo("http://soundcloud.com/niko-nikiosdj/dj-niko-force");
+        assertThat(track.getUser().getId()).isEqualTo("18402377");
+        assertThat(track.getUser().getUsername()).isEqualTo("NIV DJ [official]");
+        assertThat(track.getUser().getUri()).isEqualTo("https://api.soundcloud.com/users/18402377");
+    }
+
+    public void test_unknownFieldsAndNullsAreSkipped() throws IOException {
+        String json = "{\"kind\":\"track\",\"id\":7,\"tags\":[\"a\",{\"b\":[1,2]}],\"title\":null," +
+                "\"user\":null,\"extra\":{\"nested\":{\"deeper\":true}},\"permalink_url\":\"http://soundcloud.com/7\"}";
+
+        Track track = TrackReader.readTrack(new JsonReader(new StringReader(json)));
+
+        assertThat(track.getId()).isEqualTo(7);
+        assertThat(track.getTitle()).isNull();
+        assertThat(track.getUser()).isNull();
+        assertThat(track.getPermalinkUrl()).isEqualTo("http://soundcloud.com/7");
+    }
+
+    static void assertSameTrack(Track actual, Track expected) {
+        assertThat(actual.getId()).isEqualTo(expected.getId());
+        assertThat(actual.getTitle()).isEqualTo(expected.getTitle());
+        assertThat(actual.getWaveformUrl()).isEqualTo(expected.getWaveformUrl());
+        assertThat(actual.getPermalinkUrl()).isEqualTo(expected.getPermalinkUrl());
+        assertThat(actual.getUser().getId()).isEqualTo(expected.getUser().getId());
+        assertThat(actual.getUser().getUsername()).isEqualTo(expected.getUser().getUsername());
+        assertThat(actual.getUser().getUri()).isEqualTo(expected.getUser().getUri());
+    }
+
+    private InputStream open(String filename) {
+        InputStream inputStream = getContext().getClassLoader().getResourceAsStream(filename);
+        if (inputStream == null)
+            throw new IllegalArgumentException("Test data file not found on classpath: " + filename);
+        return inputStream;
+    }
+}
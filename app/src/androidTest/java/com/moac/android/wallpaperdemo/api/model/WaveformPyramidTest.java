@@ -0,0 +1,66 @@
+package com.moac.android.wallpaperdemo.api.model;
+
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class WaveformPyramidTest extends AndroidTestCase {
+
+    public void test_levelsHalveResolution() {
+        WaveformPyramid pyramid = WaveformPyramid.build(Waveform.quantize(new float[1800]));
+        assertThat(pyramid.getLevelSize(0)).isEqualTo(1800);
+        assertThat(pyramid.getLevelSize(1)).isEqualTo(900);
+        assertThat(pyramid.getLevelSize(pyramid.getLevelCount() - 1)).isEqualTo(1);
+    }
+
+    public void test_selectsCoarsestLevelWithAColumnPerEntry() {
+        WaveformPyramid pyramid = WaveformPyramid.build(Waveform.quantize(new float[1800]));
+        int level = pyramid.selectLevel(107);
+        assertThat(pyramid.getLevelSize(level)).isGreaterThanOrEqualTo(107);
+        assertThat(pyramid.getLevelSize(level + 1)).isLessThan(107);
+        // More columns than data
+        assertThat(pyramid.selectLevel(5000)).isEqualTo(0);
+    }
+
+    public void test_peaksSurviveAtEveryWidth() {
+        float[] amplitudes = new float[1800];
+        amplitudes[1237] = 1f;
+        WaveformPyramid pyramid = WaveformPyramid.build(Waveform.quantize(amplitudes));
+        for (int columns = 1; columns <= 400; columns++) {
+            int level = pyramid.selectLevel(columns);
+            float highest = 0f;
+            for (int col = 0; col < columns; col++) {
+                highest = Math.max(highest, pyramid.getMax(level, col, columns));
+            }
+            assertThat(highest).as("columns: " + columns).isEqualTo(1f);
+        }
+    }
+
+    public void test_minMaxMeanMatchBruteForce() {
+        Random random = new Random(42);
+        float[] amplitudes = new float[1001];
+        for (int i = 0; i < amplitudes.length; i++) {
+            amplitudes[i] = random.nextFloat();
+        }
+        Waveform waveform = Waveform.quantize(amplitudes);
+        WaveformPyramid pyramid = WaveformPyramid.build(waveform);
+
+        // Each level 3 entry covers 8 datapoints
+        final int level = 3;
+        final int columns = pyramid.getLevelSize(level);
+        for (int col = 0; col < columns - 1; col++) {
+            float min = 1f, max = 0f, sum = 0f;
+            for (int i = col * 8; i < col * 8 + 8; i++) {
+                min = Math.min(min, waveform.get(i));
+                max = Math.max(max, waveform.get(i));
+                sum += waveform.get(i);
+            }
+            assertThat(pyramid.getMin(level, col, columns)).isEqualTo(min);
+            assertThat(pyramid.getMax(level, col, columns)).isEqualTo(max);
+            assertThat(Math.abs(pyramid.getMean(level, col, columns) - sum / 8)).isLessThanOrEqualTo(1f / 255f);
+        }
+    }
+}
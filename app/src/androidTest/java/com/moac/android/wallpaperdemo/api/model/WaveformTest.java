@@ -0,0 +1,63 @@
+package com.moac.android.wallpaperdemo.api.model;
+
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class WaveformTest extends AndroidTestCase {
+
+    // Typical SoundCloud waveform PNG width and the maximum prefetch count
+    private static final int WAVEFORM_COLUMNS = 1800;
+    private static final int PREFETCH_BATCH = 25;
+
+    public void test_quantizationErrorIsWithinHalfALevel() {
+        float[] amplitudes = randomAmplitudes(new Random(42));
+        Waveform waveform = Waveform.quantize(amplitudes);
+        assertThat(waveform.size()).isEqualTo(amplitudes.length);
+        for (int i = 0; i < amplitudes.length; i++) {
+            assertThat(Math.abs(waveform.get(i) - amplitudes[i])).isLessThanOrEqualTo(0.5f / 255f);
+        }
+    }
+
+    public void test_boundsArePreservedAndOutOfRangeClamped() {
+        Waveform waveform = Waveform.quantize(new float[]{0f, 1f, -0.5f, 1.5f});
+        assertThat(waveform.get(0)).isEqualTo(0f);
+        assertThat(waveform.get(1)).isEqualTo(1f);
+        assertThat(waveform.get(2)).isEqualTo(0f);
+        assertThat(waveform.get(3)).isEqualTo(1f);
+    }
+
+    public void test_prefetchBatchMemory() {
+        Random random = new Random(42);
+        long floatBytes = 0;
+        long waveformBytes = 0;
+        long pyramidBytes = 0;
+        for (int track = 0; track < PREFETCH_BATCH; track++) {
+            float[] amplitudes = randomAmplitudes(random);
+            floatBytes += amplitudes.length * 4; // as each Track used to hold
+            Waveform waveform = Waveform.quantize(amplitudes);
+            assertThat(waveform.toQuantized()).hasSize(waveform.getSizeInBytes());
+            waveformBytes += waveform.getSizeInBytes();
+            pyramidBytes += WaveformPyramid.build(waveform).getSizeInBytes();
+        }
+
+        // 180,000 bytes of float data vs. 45,000 bytes quantized
+        assertThat(floatBytes).isEqualTo(180000);
+        assertThat(waveformBytes).isEqualTo(45000);
+        // But the pyramid holds a min, max and mean for 1,804 coarser entries per track, so
+        // quantizing only pays for it; the batch holds about what its floats did
+        assertThat(pyramidBytes).isEqualTo(PREFETCH_BATCH * 1804 * 3);
+        assertThat(waveformBytes + pyramidBytes).isEqualTo(180300);
+    }
+
+    private static float[] randomAmplitudes(Random random) {
+        float[] amplitudes = new float[WAVEFORM_COLUMNS];
+        for (int i = 0; i < amplitudes.length; i++) {
+            amplitudes[i] = random.nextFloat();
+        }
+        return amplitudes;
+    }
+}
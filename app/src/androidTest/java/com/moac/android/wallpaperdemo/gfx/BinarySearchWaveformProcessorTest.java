@@ -0,0 +1,76 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+import java.io.InputStream;
+
+import static com.google.common.io.Closeables.closeQuietly;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class BinarySearchWaveformProcessorTest extends AndroidTestCase {
+
+    BinarySearchWaveformProcessor processor;
+
+    @Override
+    public void setUp() {
+        processor = new BinarySearchWaveformProcessor();
+    }
+
+    @Override
+    public void tearDown() {
+        processor = null;
+    }
+
+    public void test_matchesWaveformProcessorForWaveformFixture() {
+        Bitmap bitmap = readTestBitmap("waveform.png");
+        assertThat(processor.transform(bitmap)).isEqualTo(new WaveformProcessor().transform(bitmap));
+    }
+
+    public void test_nonMonotonicColumnFallsBackToScan() {
+        Bitmap bitmap = Bitmap.createBitmap(3, 40, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.WHITE);
+        // Column 1: a transparent speck above the boundary probe, then opaque down to a cut-out
+        bitmap.setPixel(1, 7, Color.TRANSPARENT);
+        for (int y = 15; y < 25; y++) {
+            bitmap.setPixel(1, y, Color.TRANSPARENT);
+        }
+        float[] amplitudes = processor.transform(bitmap);
+        assertThat(amplitudes).isEqualTo(new WaveformProcessor().transform(bitmap));
+        assertThat(amplitudes[1]).isEqualTo((20f - 7f) / 20f);
+    }
+
+    public void test_speckBetweenProbesDivergesFromScan() {
+        Bitmap bitmap = Bitmap.createBitmap(1, 40, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.WHITE);
+        // Transparent from row 15, so the probes land on rows 0, 7 and 14 above it
+        for (int y = 15; y < 40; y++) {
+            bitmap.setPixel(0, y, Color.TRANSPARENT);
+        }
+        bitmap.setPixel(0, 3, Color.TRANSPARENT);
+
+        // Known divergence: the speck is missed, where the scan stops at it
+        assertThat(processor.transform(bitmap)[0]).isEqualTo((20f - 15f) / 20f);
+        assertThat(new WaveformProcessor().transform(bitmap)[0]).isEqualTo((20f - 3f) / 20f);
+    }
+
+    public void test_opaqueBitmapHasNoAmplitude() {
+        Bitmap bitmap = Bitmap.createBitmap(20, 40, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.WHITE);
+        assertThat(processor.transform(bitmap)).isEqualTo(new float[20]);
+    }
+
+    private Bitmap readTestBitmap(String filename) {
+        InputStream inputStream = getContext().getClassLoader().getResourceAsStream(filename);
+        if (inputStream == null)
+            throw new IllegalArgumentException("Test data file not found on classpath: " + filename);
+        try {
+            return BitmapFactory.decodeStream(inputStream);
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+}
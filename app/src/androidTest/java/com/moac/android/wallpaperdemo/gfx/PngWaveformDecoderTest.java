@@ -0,0 +1,144 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static com.google.common.io.Closeables.closeQuietly;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class PngWaveformDecoderTest extends AndroidTestCase {
+
+    PngWaveformDecoder decoder;
+
+    @Override
+    public void setUp() {
+        decoder = new PngWaveformDecoder();
+    }
+
+    @Override
+    public void tearDown() {
+        decoder = null;
+    }
+
+    public void test_matchesWaveformProcessorForRgbaFixture() throws IOException {
+        assertMatchesWaveformProcessor("waveform.png");
+    }
+
+    public void test_matchesWaveformProcessorForPaletteFixture() throws IOException {
+        assertMatchesWaveformProcessor("waveform_palette.png");
+    }
+
+    public void test_byteBufferMatchesStream() throws IOException {
+        byte[] png = readTestDataFile("waveform.png");
+        assertThat(decoder.transform(ByteBuffer.wrap(png)))
+                .isEqualTo(decoder.transform(new ByteArrayInputStream(png)));
+    }
+
+    public void test_stopsReadingAfterCentreLine() throws IOException {
+        byte[] png = readTestDataFile("waveform.png");
+        CountingInputStream counting = new CountingInputStream(new ByteArrayInputStream(png));
+        decoder.transform(counting);
+        assertThat(counting.count).isLessThan(png.length);
+    }
+
+    public void test_nonPngThrows() {
+        try {
+            decoder.transform(new ByteArrayInputStream("not a png".getBytes()));
+            fail("Non PNG input should throw IOException");
+        } catch (IOException e) {
+            // Pass!
+        }
+    }
+
+    public void test_oversizedHeaderThrowsBeforeAllocating() throws IOException {
+        try {
+            decoder.transform(new ByteArrayInputStream(createHeaderOnlyPng(Integer.MAX_VALUE, 280)));
+            fail("Oversized PNG should throw IOException");
+        } catch (IOException e) {
+            assertThat(e).hasMessageContaining("too large");
+        }
+        try {
+            decoder.transform(new ByteArrayInputStream(createHeaderOnlyPng(1800, PngWaveformDecoder.MAX_DIMENSION + 1)));
+            fail("Oversized PNG should throw IOException");
+        } catch (IOException e) {
+            assertThat(e).hasMessageContaining("too large");
+        }
+    }
+
+    private void assertMatchesWaveformProcessor(String filename) throws IOException {
+        byte[] png = readTestDataFile(filename);
+        Bitmap bitmap = BitmapFactory.decodeByteArray(png, 0, png.length);
+        float[] expected = new WaveformProcessor().transform(bitmap);
+        assertThat(decoder.transform(new ByteArrayInputStream(png))).isEqualTo(expected);
+    }
+
+    // An RGBA PNG with just its IHDR chunk; the CRC isn't checked
+    private static byte[] createHeaderOnlyPng(int width, int height) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+        out.writeInt(13);
+        out.writeBytes("IHDR");
+        out.writeInt(width);
+        out.writeInt(height);
+        out.write(new byte[]{8, 6, 0, 0, 0});
+        out.writeInt(0);
+        return bytes.toByteArray();
+    }
+
+    private byte[] readTestDataFile(String filename) throws IOException {
+        InputStream inputStream = getContext().getClassLoader().getResourceAsStream(filename);
+        if (inputStream == null)
+            throw new IllegalArgumentException("Test data file not found on classpath: " + filename);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts draw calls and records the bounds of everything drawn, rather than drawing.
+ * Creates no android.graphics objects, so measures layout and draw calls without
+ * rasterizing. It doesn't take TrackDrawer off the device though; that still uses
+ * Color, Rect and Log.
+ */
+public class RecordingDrawingBackend implements DrawingBackend {
+
+    private final int mWidth;
+    private final int mHeight;
+
+    int fillCount;
+    int ovalCount;
+    int circleCount;
+    int textCount;
+    int columnsCount;
+    int measureCount;
+    final List<String> texts = new ArrayList<String>();
+    float textSize;
+
+    // Bounds of every oval and circle, including those of columns drawn as one
+    float left = Float.MAX_VALUE;
+    float top = Float.MAX_VALUE;
+    float right = -Float.MAX_VALUE;
+    float bottom = -Float.MAX_VALUE;
+
+    public RecordingDrawingBackend(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    int getDrawCallCount() {
+        return fillCount + ovalCount + circleCount + textCount + columnsCount;
+    }
+
+    void reset() {
+        fillCount = ovalCount = circleCount = textCount = columnsCount = measureCount = 0;
+        texts.clear();
+        left = top = Float.MAX_VALUE;
+        right = bottom = -Float.MAX_VALUE;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public void fill(int color) {
+        fillCount++;
+    }
+
+    @Override
+    public void drawOval(float left, float top, float right, float bottom, int color) {
+        ovalCount++;
+        include(left, top, right, bottom);
+    }
+
+    @Override
+    public void drawCircle(float centreX, float centreY, float radius, int color) {
+        circleCount++;
+        include(centreX - radius, centreY - radius, centreX + radius, centreY + radius);
+    }
+
+    @Override
+    public void drawText(String text, float x, float y, float textSize, int color) {
+        textCount++;
+        texts.add(text);
+        this.textSize = textSize;
+    }
+
+    @Override
+    public void drawColumns(float[] lefts, float[] lengths, float columnWidth, float centreY, int color) {
+        columnsCount++;
+        for (int col = 0; col < lengths.length; col++) {
+            float top = centreY - lengths[col] / 2f;
+            include(lefts[col], top - 1.5f * columnWidth, lefts[col] + columnWidth, top + lengths[col] + 1.5f * columnWidth);
+        }
+    }
+
+    // As if every character were half as wide as the text is high
+    @Override
+    public float measureText(String text, float textSize) {
+        measureCount++;
+        return text.length() * textSize / 2f;
+    }
+
+    private void include(float l, float t, float r, float b) {
+        left = Math.min(left, l);
+        top = Math.min(top, t);
+        right = Math.max(right, r);
+        bottom = Math.max(bottom, b);
+    }
+}
@@ -0,0 +1,313 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class SurfaceRendererTest extends AndroidTestCase {
+
+    // As WallpaperDemoService picks from
+    static final int[] ENGINE_COLORS =
+            {0xFF434B52, 0xFF54B395, 0xFFD1654C, 0xFFD6B331, 0xFF3D4348,
+                    0xFFA465C5, 0xFF5661DE, 0xFF4AB498, 0xFFFA7B68, 0xFFFF6600,
+                    0xFF669900, 0xFF66CCCC};
+
+    static final long DURATION_NANOS = TimeUnit.MILLISECONDS.toNanos(600);
+
+    FakeSurfaceHolder holder;
+    ImmediateFrameScheduler scheduler;
+    SurfaceRenderer renderer;
+
+    @Override
+    public void setUp() {
+        holder = new FakeSurfaceHolder(540, 960);
+        scheduler = new ImmediateFrameScheduler();
+        renderer = new SurfaceRenderer(holder, new TrackDrawer(10, 10), new WaveformMaskCache(0), "Placeholder", scheduler);
+    }
+
+    @Override
+    public void tearDown() {
+        renderer.quit();
+        renderer = null;
+        holder = null;
+    }
+
+    public void test_drawsOnlyWhileSurfaceExists() {
+        renderer.submit(Frame.placeholder());
+        waitForRenderThread();
+        assertThat(holder.lockCount).isEqualTo(0);
+
+        renderer.onSurfaceCreated();
+        renderer.onSurfaceChanged(540, 960);
+        renderer.submit(Frame.placeholder());
+        waitForRenderThread();
+        assertThat(holder.lockCount).isEqualTo(1);
+
+        renderer.onSurfaceDestroyed();
+        renderer.submit(Frame.placeholder());
+        waitForRenderThread();
+        assertThat(holder.lockCount).isEqualTo(1);
+    }
+
+    public void test_unchangedFrameIsNotRedrawn() {
+        Track track = TrackDrawerTest.createTrack(1800);
+        startSurface();
+        renderer.submit(Frame.of(track, 0xFF434B52));
+        waitForRenderThread();
+        renderer.submit(Frame.of(track, 0xFF434B52));
+        waitForRenderThread();
+        assertThat(holder.lockCount).isEqualTo(1);
+        assertThat(holder.unlockCount).isEqualTo(1);
+    }
+
+    public void test_submittedTransitionIsPacedByTheRenderThread() {
+        Track from = TrackDrawerTest.createTrack(1800, 1);
+        Track to = TrackDrawerTest.createTrack(900, 2);
+        startSurface();
+        renderer.submit(Frame.of(from, 0xFF434B52));
+        waitForRenderThread();
+        renderer.submit(Frame.transition(from, to, 0xFF54B395, 0, DURATION_NANOS));
+        waitForRenderThread();
+
+        // Frame 0 is at fraction 0, so 600ms at 60fps is 36 intervals
+        assertThat(scheduler.frameCount).isEqualTo(37);
+        // Only the first track, and the transition's first frame with its new colour, lock the whole surface
+        assertThat(holder.fullLockCount).isEqualTo(2);
+        assertThat(holder.lockCount).isGreaterThan(2);
+        assertThat(holder.lastDirty.height()).isLessThan(960);
+    }
+
+    public void test_frameSubmittedDuringTransitionEndsIt() {
+        Track from = TrackDrawerTest.createTrack(1800, 1);
+        Track to = TrackDrawerTest.createTrack(900, 2);
+        startSurface();
+        scheduler.maxFrames = 5;
+        renderer.submit(Frame.transition(from, to, 0xFF54B395, 0, DURATION_NANOS));
+        waitForRenderThread();
+        renderer.submit(Frame.of(to, 0xFF54B395));
+        waitForRenderThread();
+        assertThat(scheduler.pending).isNull();
+        assertThat(scheduler.frameCount).isEqualTo(5);
+    }
+
+    @SuppressWarnings("deprecation")
+    public void test_submittedTransitionRendersWithoutAllocating() {
+        Track from = TrackDrawerTest.createTrack(1800, 1);
+        Track to = TrackDrawerTest.createTrack(1800, 2);
+        startSurface();
+
+        // Warm up
+        renderer.submit(Frame.of(from, 0xFF434B52));
+        renderer.submit(Frame.transition(from, to, 0xFF54B395, 0, DURATION_NANOS));
+        waitForRenderThread();
+        renderer.submit(Frame.of(from, 0xFF434B52));
+        waitForRenderThread();
+
+        // The engine allocates one description per transition, not per frame
+        Frame transition = Frame.transition(from, to, 0xFF54B395, 0, DURATION_NANOS);
+        final int[] allocCount = {-1};
+        int framesBefore = scheduler.frameCount;
+        Debug.startAllocCounting();
+        try {
+            renderer.runAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    Debug.resetThreadAllocCount();
+                }
+            }, 1000);
+            renderer.submit(transition);
+            renderer.runAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    allocCount[0] = Debug.getThreadAllocCount();
+                }
+            }, 1000);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        assertThat(scheduler.frameCount - framesBefore).isEqualTo(37);
+        assertThat(allocCount[0]).isEqualTo(0);
+    }
+
+    public void test_maskCacheHitsInTheEnginesColourAndTransitionFlow() {
+        WaveformMaskCache cache = new WaveformMaskCache(4L * 540 * 960);
+        renderer.quit();
+        renderer = new SurfaceRenderer(holder, new TrackDrawer(10, 10), cache, "Placeholder", scheduler);
+        Track[] pool = {TrackDrawerTest.createTrack(1800, 1), TrackDrawerTest.createTrack(900, 2),
+                TrackDrawerTest.createTrack(1200, 3)};
+        Random random = new Random(42);
+        startSurface();
+
+        // As the engine: the first track is drawn in full
+        Track current = pool[0];
+        renderer.submit(Frame.of(current, randomColor(random)));
+        waitForRenderThread();
+
+        // While visible, each tick morphs to the next track on a new random colour
+        int tick = 1;
+        for (; tick <= 6; tick++) {
+            Track next = pool[tick % pool.length];
+            renderer.submit(Frame.transition(current, next, randomColor(random), 0, DURATION_NANOS));
+            waitForRenderThread();
+            current = next;
+        }
+        assertThat(cache.getMissCount()).isEqualTo(1);
+
+        // While hidden, ticks carry on drawing each track in full, still on random colours
+        for (; tick <= 12; tick++) {
+            renderer.submit(Frame.of(pool[tick % pool.length], randomColor(random)));
+            waitForRenderThread();
+        }
+
+        assertThat(cache.getMissCount()).isEqualTo(3);
+        assertThat(cache.getHitCount()).isEqualTo(4);
+    }
+
+    private static int randomColor(Random random) {
+        return ENGINE_COLORS[random.nextInt(ENGINE_COLORS.length)];
+    }
+
+    private void startSurface() {
+        renderer.onSurfaceCreated();
+        renderer.onSurfaceChanged(540, 960);
+    }
+
+    private void waitForRenderThread() {
+        assertThat(renderer.awaitIdle(1000)).isTrue();
+    }
+
+    // Runs transition frames back to back on the render thread, at synthetic 60fps frame times from 0
+    static class ImmediateFrameScheduler implements FrameScheduler {
+        static final long VSYNC_NANOS = 16666667;
+
+        volatile int frameCount;
+        int maxFrames = Integer.MAX_VALUE;
+        Callback pending;
+        private boolean mIsRunning;
+
+        @Override
+        public void scheduleFrame(Callback callback) {
+            if (pending == null) {
+                pending = callback;
+            }
+            if (mIsRunning) {
+                return; // called back from a frame, keep looping
+            }
+            mIsRunning = true;
+            try {
+                long frameTimeNanos = 0;
+                for (int frames = 0; pending != null && frames < maxFrames; frames++) {
+                    Callback next = pending;
+                    pending = null;
+                    frameCount++;
+                    next.doFrame(frameTimeNanos);
+                    frameTimeNanos += VSYNC_NANOS;
+                }
+            } finally {
+                mIsRunning = false;
+            }
+        }
+
+        @Override
+        public void cancelFrame() {
+            pending = null;
+        }
+    }
+
+    // Allocates nothing per frame, like a real surface
+    static class FakeSurfaceHolder implements SurfaceHolder {
+
+        final Bitmap bitmap;
+        final Canvas canvas;
+        final Rect bounds;
+        final Rect lastDirty = new Rect();
+        volatile int lockCount;
+        volatile int fullLockCount;
+        volatile int unlockCount;
+
+        FakeSurfaceHolder(int width, int height) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            canvas = new Canvas(bitmap);
+            bounds = new Rect(0, 0, width, height);
+        }
+
+        @Override
+        public Canvas lockCanvas() {
+            return lockCanvas(bounds);
+        }
+
+        @Override
+        public Canvas lockCanvas(Rect dirty) {
+            lockCount++;
+            if (dirty.equals(bounds)) {
+                fullLockCount++;
+            }
+            lastDirty.set(dirty);
+            canvas.save();
+            canvas.clipRect(dirty);
+            return canvas;
+        }
+
+        @Override
+        public void unlockCanvasAndPost(Canvas canvas) {
+            canvas.restore();
+            unlockCount++;
+        }
+
+        @Override
+        public Rect getSurfaceFrame() {
+            return new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        }
+
+        @Override
+        public Surface getSurface() {
+            return null;
+        }
+
+        @Override
+        public void addCallback(Callback callback) {
+        }
+
+        @Override
+        public void removeCallback(Callback callback) {
+        }
+
+        @Override
+        public boolean isCreating() {
+            return false;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setType(int type) {
+        }
+
+        @Override
+        public void setFixedSize(int width, int height) {
+        }
+
+        @Override
+        public void setSizeFromLayout() {
+        }
+
+        @Override
+        public void setFormat(int format) {
+        }
+
+        @Override
+        public void setKeepScreenOn(boolean screenOn) {
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import android.test.AndroidTestCase;
+
+import com.google.gson.Gson;
+import com.moac.android.wallpaperdemo.api.model.Track;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class TitleLayoutCacheTest extends AndroidTestCase {
+
+    TitleLayoutCache cache;
+    RecordingDrawingBackend backend;
+
+    @Override
+    public void setUp() {
+        cache = new TitleLayoutCache();
+        backend = new RecordingDrawingBackend(540, 960);
+    }
+
+    @Override
+    public void tearDown() {
+        cache = null;
+        backend = null;
+    }
+
+    public void test_shortTitleIsUnchanged() {
+        TitleLayoutCache.Layout layout = cache.get(backend, createTrack(1, "Short"), 100f, 10f);
+        assertThat(layout.getText()).isEqualTo("Short");
+        assertThat(layout.getWidth()).isEqualTo(25f);
+    }
+
+    public void test_longTitleIsEllipsizedToFit() {
+        // 5px per character, so 10 fit
+        TitleLayoutCache.Layout layout = cache.get(backend, createTrack(1, "A title much too long to fit"), 50f, 10f);
+        assertThat(layout.getText()).isEqualTo("A title m" + TitleLayoutCache.ELLIPSIS);
+        assertThat(layout.getWidth()).isLessThanOrEqualTo(50f);
+    }
+
+    public void test_ellipsizingDropsTrailingSpace() {
+        TitleLayoutCache.Layout layout = cache.get(backend, createTrack(1, "A title much too long to fit"), 45f, 10f);
+        assertThat(layout.getText()).isEqualTo("A title" + TitleLayoutCache.ELLIPSIS);
+    }
+
+    public void test_titleTooWideForEvenOneCharacter() {
+        TitleLayoutCache.Layout layout = cache.get(backend, createTrack(1, "Title"), 2f, 10f);
+        assertThat(layout.getText()).isEqualTo(TitleLayoutCache.ELLIPSIS);
+    }
+
+    public void test_measuresOncePerWidth() {
+        Track track = createTrack(1, "A title much too long to fit");
+        cache.get(backend, track, 50f, 10f);
+        int measured = backend.measureCount;
+        cache.get(backend, track, 50f, 10f);
+        assertThat(backend.measureCount).isEqualTo(measured);
+
+        TitleLayoutCache.Layout layout = cache.get(backend, track, 100f, 10f);
+        assertThat(backend.measureCount).isGreaterThan(measured);
+        assertThat(layout.getWidth()).isLessThanOrEqualTo(100f);
+    }
+
+    public void test_evict() {
+        cache.get(backend, createTrack(1, "One"), 100f, 10f);
+        cache.get(backend, createTrack(2, "Two"), 100f, 10f);
+        cache.evict(1);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    private static Track createTrack(long id, String title) {
+        return new Gson().fromJson("{\"id\":" + id + ",\"title\":\"" + title + "\"}", Track.class);
+    }
+}
@@ -0,0 +1,259 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.api.model.Waveform;
+import com.moac.android.wallpaperdemo.api.model.WaveformPyramid;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+// Sadly not using JUnit 4
+public class TrackDrawerTest extends AndroidTestCase {
+
+    TrackDrawer drawer;
+
+    @Override
+    public void setUp() {
+        drawer = new TrackDrawer(10, 10);
+    }
+
+    @Override
+    public void tearDown() {
+        drawer = null;
+    }
+
+    public void test_decodeSizeKeepsFullWidth() {
+        // Portrait and landscape alike, so the pyramid does the reduction
+        assertThat(drawer.getDecodeSize(1920).getWidth()).isEqualTo(TrackDrawer.DECODE_WIDTH);
+        assertThat(drawer.getDecodeSize(1080).getWidth()).isEqualTo(TrackDrawer.DECODE_WIDTH);
+    }
+
+    public void test_decodeHeightIsCapped() {
+        assertThat(drawer.getDecodeSize(1920).getHeight()).isEqualTo(TrackDrawer.MAX_DECODE_HEIGHT);
+        assertThat(drawer.getDecodeSize(1080).getHeight()).isEqualTo(TrackDrawer.MAX_DECODE_HEIGHT);
+    }
+
+    public void test_decodeSizeFollowsSmallSurfaceHeight() {
+        DecodeSize size = drawer.getDecodeSize(180);
+        assertThat(size.getHeight()).isEqualTo(120);
+    }
+
+    @SuppressWarnings("deprecation")
+    public void test_drawingAllocatesNothingAfterWarmUp() {
+        Track track = createTrack(1800);
+        Canvas canvas = new Canvas(Bitmap.createBitmap(540, 960, Bitmap.Config.ARGB_8888));
+
+        // Warm up; calculates and caches geometry
+        drawer.drawOn(canvas, track);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int frame = 0; frame < 10; frame++) {
+                drawer.drawOn(canvas, track);
+            }
+            assertThat(Debug.getThreadAllocCount()).isEqualTo(0);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void test_pathModeAllocatesNothingAfterWarmUp() {
+        drawer.setRenderMode(TrackDrawer.RenderMode.PATH);
+        test_drawingAllocatesNothingAfterWarmUp();
+    }
+
+    public void test_pathModeLooksTheSameAsPrimitives() {
+        Track track = createTrack(1800);
+        drawer.setColor(0xFF434B52);
+        Bitmap primitives = Bitmap.createBitmap(540, 960, Bitmap.Config.ARGB_8888);
+        drawer.drawOn(new Canvas(primitives), track);
+
+        drawer.setRenderMode(TrackDrawer.RenderMode.PATH);
+        Bitmap path = Bitmap.createBitmap(540, 960, Bitmap.Config.ARGB_8888);
+        drawer.drawOn(new Canvas(path), track);
+
+        // Allow for differences in anti-aliasing at the edges of shapes
+        int[] expected = new int[540 * 960];
+        int[] actual = new int[540 * 960];
+        primitives.getPixels(expected, 0, 540, 0, 0, 540, 960);
+        path.getPixels(actual, 0, 540, 0, 0, 540, 960);
+        int differences = 0;
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i]) differences++;
+        }
+        assertThat(differences).isLessThan(expected.length / 100);
+    }
+
+    public void test_firstFrameIsDirtyEverywhere() {
+        Rect dirty = new Rect();
+        drawer.getDirtyBounds(createTrack(1800), null, null, 1f, 540, 960, dirty);
+        assertThat(dirty).isEqualTo(new Rect(0, 0, 540, 960));
+    }
+
+    public void test_unchangedFrameIsClean() {
+        Track track = createTrack(1800);
+        Rect dirty = new Rect();
+        drawer.getDirtyBounds(track, null, null, 1f, 540, 960, dirty);
+        drawer.getDirtyBounds(track, null, null, 1f, 540, 960, dirty);
+        assertThat(dirty.isEmpty()).isTrue();
+    }
+
+    public void test_colorChangeIsDirtyEverywhere() {
+        Track track = createTrack(1800);
+        Rect dirty = new Rect();
+        drawer.getDirtyBounds(track, null, null, 1f, 540, 960, dirty);
+        drawer.setColor(0xFF54B395);
+        drawer.getDirtyBounds(track, null, null, 1f, 540, 960, dirty);
+        assertThat(dirty).isEqualTo(new Rect(0, 0, 540, 960));
+    }
+
+    public void test_invalidateIsDirtyEverywhere() {
+        Track track = createTrack(1800);
+        Rect dirty = new Rect();
+        drawer.getDirtyBounds(track, null, null, 1f, 540, 960, dirty);
+        drawer.invalidate();
+        drawer.getDirtyBounds(track, null, null, 1f, 540, 960, dirty);
+        assertThat(dirty).isEqualTo(new Rect(0, 0, 540, 960));
+    }
+
+    public void test_transitionFramesOnlyDirtyTheWaveform() {
+        Track from = createTrack(1800, 1);
+        Track to = createTrack(900, 2);
+        float[] fromLengths = drawer.getColumnLengths(from, 540, 960, null);
+        float[] toLengths = drawer.getColumnLengths(to, 540, 960, null);
+        Rect dirty = new Rect();
+
+        // The first frame changes track, so everything
+        drawer.getDirtyBounds(to, fromLengths, toLengths, 0.1f, 540, 960, dirty);
+        assertThat(dirty).isEqualTo(new Rect(0, 0, 540, 960));
+
+        drawer.getDirtyBounds(to, fromLengths, toLengths, 0.2f, 540, 960, dirty);
+        float maxLength = 0f;
+        for (int i = 0; i < fromLengths.length; i++) {
+            maxLength = Math.max(maxLength, Math.max(fromLengths[i], toLengths[i]));
+        }
+        assertThat(dirty.isEmpty()).isFalse();
+        assertThat(dirty.top).isGreaterThanOrEqualTo((int) (480 - maxLength / 2 - 20));
+        assertThat(dirty.bottom).isLessThanOrEqualTo((int) Math.ceil(480 + maxLength / 2 + 20));
+        assertThat(dirty.height()).isLessThan(960);
+
+        // Repeating the last frame changes nothing
+        drawer.getDirtyBounds(to, fromLengths, toLengths, 0.2f, 540, 960, dirty);
+        assertThat(dirty.isEmpty()).isTrue();
+    }
+
+    public void test_primitivesDrawCallsPerFrame() {
+        RecordingDrawingBackend backend = new RecordingDrawingBackend(540, 960);
+        drawer.drawOn(backend, createTrack(1800));
+
+        // 26 columns, each an oval and two tails
+        assertThat(backend.fillCount).isEqualTo(1);
+        assertThat(backend.ovalCount).isEqualTo(26);
+        assertThat(backend.circleCount).isEqualTo(52);
+        assertThat(backend.textCount).isEqualTo(1);
+        assertThat(backend.columnsCount).isEqualTo(0);
+        assertThat(backend.texts).containsExactly("Test Track");
+    }
+
+    public void test_pathModeDrawCallsPerFrame() {
+        RecordingDrawingBackend backend = new RecordingDrawingBackend(540, 960);
+        drawer.setRenderMode(TrackDrawer.RenderMode.PATH);
+        drawer.drawOn(backend, createTrack(1800));
+
+        // All columns as one shape
+        assertThat(backend.getDrawCallCount()).isEqualTo(3);
+        assertThat(backend.columnsCount).isEqualTo(1);
+        assertThat(backend.ovalCount + backend.circleCount).isEqualTo(0);
+        // Laid out as for primitives
+        assertThat(backend.left).isEqualTo(15f, offset(1f));
+        assertThat(backend.right).isEqualTo(525f, offset(1f));
+    }
+
+    public void test_waveformLayout() {
+        RecordingDrawingBackend backend = new RecordingDrawingBackend(540, 960);
+        drawer.drawOn(backend, createTrack(1800));
+
+        // 26 columns and their gaps fit in 530px, the 10px left over split between the margins
+        assertThat(backend.left).isEqualTo(15f, offset(1f));
+        assertThat(backend.right).isEqualTo(525f, offset(1f));
+        assertThat(backend.left + backend.right).isEqualTo(540f, offset(1f));
+        assertThat(backend.top + backend.bottom).isEqualTo(960f, offset(1f));
+        // Waveform is at most a third of the height, plus tails
+        assertThat(backend.bottom - backend.top).isLessThanOrEqualTo(320f + 4 * 10f);
+    }
+
+    public void test_transitionDrawCallsPerFrame() {
+        RecordingDrawingBackend backend = new RecordingDrawingBackend(540, 960);
+        float[] fromLengths = drawer.getColumnLengths(createTrack(1800, 1), 540, 960, null);
+        float[] toLengths = drawer.getColumnLengths(createTrack(900, 2), 540, 960, null);
+        drawer.drawTransitionOn(backend, createTrack(900, 2), fromLengths, toLengths, 0.5f);
+
+        assertThat(backend.getDrawCallCount()).isEqualTo(1 + 26 * 3 + 1);
+    }
+
+    public void test_titleIsMeasuredOnlyOnce() {
+        RecordingDrawingBackend backend = new RecordingDrawingBackend(540, 960);
+        Track track = createTrack(1800);
+        drawer.drawOn(backend, track);
+        assertThat(backend.measureCount).isGreaterThan(0);
+
+        backend.reset();
+        drawer.drawOn(backend, track);
+        assertThat(backend.measureCount).isEqualTo(0);
+        assertThat(backend.texts).containsExactly("Test Track");
+    }
+
+    public void test_titleTextSizeFollowsDensity() {
+        RecordingDrawingBackend backend = new RecordingDrawingBackend(540, 960);
+        new TrackDrawer(10, 10, 2f).drawOn(backend, createTrack(1800));
+        assertThat(backend.textSize).isEqualTo(32f);
+    }
+
+    // Not an assertion, a baseline for render cost without rasterizing anything
+    public void test_benchmarkPrimitivesFrame() {
+        RecordingDrawingBackend backend = new RecordingDrawingBackend(1080, 1920);
+        Track track = createTrack(1800);
+        final int frames = 1000;
+        for (int frame = 0; frame < frames / 10; frame++) {
+            drawer.drawOn(backend, track); // warm up
+        }
+        backend.reset();
+        long start = System.nanoTime();
+        for (int frame = 0; frame < frames; frame++) {
+            drawer.drawOn(backend, track);
+        }
+        long elapsed = System.nanoTime() - start;
+        Log.i("TrackDrawerTest", String.format("benchmarkPrimitivesFrame() - %d draw calls, %d ns per frame",
+                backend.getDrawCallCount() / frames, elapsed / frames));
+        assertThat(backend.getDrawCallCount()).isEqualTo(frames * (1 + 53 * 3 + 1));
+    }
+
+    static Track createTrack(int datapoints) {
+        return createTrack(datapoints, 1);
+    }
+
+    static Track createTrack(int datapoints, long id) {
+        Track track = new Gson().fromJson("{\"id\":" + id + ",\"title\":\"Test Track\"}", Track.class);
+        Random random = new Random(42);
+        float[] amplitudes = new float[datapoints];
+        for (int i = 0; i < amplitudes.length; i++) {
+            amplitudes[i] = random.nextFloat();
+        }
+        Waveform waveform = Waveform.quantize(amplitudes);
+        track.setWaveform(waveform);
+        track.setWaveformPyramid(WaveformPyramid.build(waveform));
+        return track;
+    }
+}
@@ -0,0 +1,151 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class TransitionAnimatorTest extends AndroidTestCase {
+
+    private static final long DURATION_NANOS = TimeUnit.MILLISECONDS.toNanos(600);
+    private static final long VSYNC_NANOS = 16666667; // 60fps
+
+    ManualFrameScheduler scheduler;
+    RecordingListener listener;
+    TransitionAnimator animator;
+
+    @Override
+    public void setUp() {
+        scheduler = new ManualFrameScheduler();
+        listener = new RecordingListener();
+        animator = new TransitionAnimator(scheduler, listener);
+    }
+
+    @Override
+    public void tearDown() {
+        animator = null;
+    }
+
+    public void test_finishesInExpectedFramesAtVsync() {
+        animator.start(DURATION_NANOS);
+        int frames = scheduler.runFrames(0, VSYNC_NANOS, 1000);
+
+        // Frame 0 is at fraction 0, so 600ms at 60fps is 36 intervals
+        assertThat(frames).isEqualTo(37);
+        assertThat(animator.getFrameCount()).isEqualTo(37);
+        assertThat(animator.isRunning()).isFalse();
+        assertThat(listener.lastFraction).isEqualTo(1f);
+        assertThat(listener.endCount).isEqualTo(1);
+    }
+
+    public void test_slowFramesAreDroppedNotQueued() {
+        animator.start(DURATION_NANOS);
+        // Rendering only manages 10fps
+        int frames = scheduler.runFrames(0, TimeUnit.MILLISECONDS.toNanos(100), 1000);
+        assertThat(frames).isEqualTo(7);
+        assertThat(listener.endCount).isEqualTo(1);
+    }
+
+    public void test_cancelStopsFrames() {
+        animator.start(DURATION_NANOS);
+        scheduler.runFrames(0, VSYNC_NANOS, 5);
+        animator.cancel();
+        assertThat(scheduler.pending).isNull();
+        assertThat(animator.isRunning()).isFalse();
+        assertThat(listener.endCount).isEqualTo(0);
+    }
+
+    public void test_noFramesWhenNotStarted() {
+        assertThat(scheduler.pending).isNull();
+        assertThat(scheduler.runFrames(0, VSYNC_NANOS, 10)).isEqualTo(0);
+    }
+
+    @SuppressWarnings("deprecation")
+    public void test_transitionFramesAllocateNothing() {
+        final TrackDrawer drawer = new TrackDrawer(10, 10);
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(540, 960, Bitmap.Config.ARGB_8888));
+        final Track from = TrackDrawerTest.createTrack(1800, 1);
+        final Track to = TrackDrawerTest.createTrack(1800, 2);
+        final float[] fromLengths = drawer.getColumnLengths(from, 540, 960, null);
+        final float[] toLengths = drawer.getColumnLengths(to, 540, 960, null);
+
+        TransitionAnimator drawingAnimator = new TransitionAnimator(scheduler, new TransitionAnimator.Listener() {
+            @Override
+            public void onTransitionFrame(float fraction) {
+                drawer.drawTransitionOn(canvas, to, fromLengths, toLengths, fraction);
+            }
+
+            @Override
+            public void onTransitionEnd() {
+            }
+        });
+
+        // Warm up
+        drawingAnimator.start(DURATION_NANOS);
+        scheduler.runFrames(0, VSYNC_NANOS, 1000);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            drawingAnimator.start(DURATION_NANOS);
+            int frames = scheduler.runFrames(0, VSYNC_NANOS, 1000);
+            assertThat(Debug.getThreadAllocCount()).isEqualTo(0);
+            assertThat(frames).isEqualTo(37);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    // Runs frame callbacks on demand with synthetic frame times
+    private static class ManualFrameScheduler implements FrameScheduler {
+        Callback pending;
+
+        @Override
+        public void scheduleFrame(Callback callback) {
+            if (pending == null) {
+                pending = callback;
+            }
+        }
+
+        @Override
+        public void cancelFrame() {
+            pending = null;
+        }
+
+        int runFrames(long startNanos, long intervalNanos, int maxFrames) {
+            int frames = 0;
+            long frameTime = startNanos;
+            while (pending != null && frames < maxFrames) {
+                Callback callback = pending;
+                pending = null;
+                callback.doFrame(frameTime);
+                frameTime += intervalNanos;
+                frames++;
+            }
+            return frames;
+        }
+    }
+
+    private static class RecordingListener implements TransitionAnimator.Listener {
+        float lastFraction = -1f;
+        int endCount;
+
+        @Override
+        public void onTransitionFrame(float fraction) {
+            assertThat(fraction).isGreaterThanOrEqualTo(lastFraction);
+            lastFraction = fraction;
+        }
+
+        @Override
+        public void onTransitionEnd() {
+            endCount++;
+        }
+    }
+}
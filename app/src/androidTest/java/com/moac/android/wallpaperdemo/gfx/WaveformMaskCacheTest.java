@@ -0,0 +1,125 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.test.AndroidTestCase;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class WaveformMaskCacheTest extends AndroidTestCase {
+
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 200;
+    private static final long MASK_BYTES = (long) WIDTH * HEIGHT;
+
+    TrackDrawer drawer;
+    Canvas canvas;
+
+    @Override
+    public void setUp() {
+        drawer = new TrackDrawer(10, 10);
+        drawer.setColor(0xFF434B52);
+        canvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+    }
+
+    @Override
+    public void tearDown() {
+        drawer = null;
+        canvas = null;
+    }
+
+    public void test_repeatedTrackIsHit() {
+        WaveformMaskCache cache = new WaveformMaskCache(MASK_BYTES * 2);
+        Track track = TrackDrawerTest.createTrack(1800);
+        cache.drawOn(canvas, drawer, track);
+        cache.drawOn(canvas, drawer, track);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getSizeInBytes()).isEqualTo(MASK_BYTES);
+    }
+
+    public void test_colourChangeIsStillHit() {
+        WaveformMaskCache cache = new WaveformMaskCache(MASK_BYTES * 2);
+        Track track = TrackDrawerTest.createTrack(1800);
+        cache.drawOn(canvas, drawer, track);
+        drawer.setColor(0xFF54B395);
+        cache.drawOn(canvas, drawer, track);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMaskCount()).isEqualTo(1);
+    }
+
+    public void test_tintedMaskLooksLikeDirectDraw() {
+        Track track = TrackDrawerTest.createTrack(1800);
+        Bitmap direct = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        drawer.drawOn(new Canvas(direct), track);
+
+        WaveformMaskCache cache = new WaveformMaskCache(MASK_BYTES * 2);
+        Bitmap masked = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        cache.drawOn(new Canvas(masked), drawer, track);
+
+        // Allowing for rounding where anti-aliased edges are blended
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertThat(maxChannelDifference(masked.getPixel(x, y), direct.getPixel(x, y)))
+                        .as("pixel: " + x + "," + y).isLessThanOrEqualTo(2);
+            }
+        }
+    }
+
+    public void test_leastRecentlyUsedEvictedAndReusedWithinBudget() {
+        WaveformMaskCache cache = new WaveformMaskCache(MASK_BYTES * 2);
+        Track first = TrackDrawerTest.createTrack(1800, 1);
+        Track second = TrackDrawerTest.createTrack(1800, 2);
+        Track third = TrackDrawerTest.createTrack(1800, 3);
+
+        cache.drawOn(canvas, drawer, first);
+        cache.drawOn(canvas, drawer, second);
+        cache.drawOn(canvas, drawer, first); // first is now most recently used
+        cache.drawOn(canvas, drawer, third); // evicts second, reusing its bitmap
+
+        assertThat(cache.getSizeInBytes()).isEqualTo(MASK_BYTES * 2);
+        assertThat(cache.getMaskCount()).isEqualTo(2);
+
+        cache.drawOn(canvas, drawer, first);
+        assertThat(cache.getHitCount()).isEqualTo(2);
+        cache.drawOn(canvas, drawer, second);
+        assertThat(cache.getMissCount()).isEqualTo(4);
+    }
+
+    public void test_budgetForFewerThanTwoMasksIsNotUsed() {
+        WaveformMaskCache cache = new WaveformMaskCache(MASK_BYTES * 2 - 1);
+        Track track = TrackDrawerTest.createTrack(1800);
+        cache.drawOn(canvas, drawer, track);
+        cache.drawOn(canvas, drawer, track);
+        assertThat(cache.isEnabled(WIDTH, HEIGHT)).isFalse();
+        assertThat(cache.getMaskCount()).isEqualTo(0);
+        assertThat(cache.getSizeInBytes()).isEqualTo(0);
+        assertThat(cache.getHitCount() + cache.getMissCount()).isEqualTo(0);
+    }
+
+    public void test_evictKeepsASpareForTheNextMiss() {
+        WaveformMaskCache cache = new WaveformMaskCache(MASK_BYTES * 4);
+        Track track = TrackDrawerTest.createTrack(1800, 1);
+        cache.drawOn(canvas, drawer, track);
+        cache.evict(track.getId());
+        assertThat(cache.getMaskCount()).isEqualTo(0);
+        assertThat(cache.getSizeInBytes()).isEqualTo(MASK_BYTES);
+
+        cache.drawOn(canvas, drawer, TrackDrawerTest.createTrack(1800, 2));
+        assertThat(cache.getSizeInBytes()).isEqualTo(MASK_BYTES);
+
+        cache.clear();
+        assertThat(cache.getSizeInBytes()).isEqualTo(0);
+    }
+
+    private static int maxChannelDifference(int a, int b) {
+        int max = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            max = Math.max(max, Math.abs(((a >>> shift) & 0xFF) - ((b >>> shift) & 0xFF)));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,73 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+import java.io.InputStream;
+
+import static com.google.common.io.Closeables.closeQuietly;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class WaveformProcessorTest extends AndroidTestCase {
+
+    WaveformProcessor processor;
+
+    @Override
+    public void setUp() {
+        processor = new WaveformProcessor();
+    }
+
+    @Override
+    public void tearDown() {
+        processor = null;
+    }
+
+    public void test_bulkMatchesPerPixelForWaveformFixture() {
+        Bitmap bitmap = readTestBitmap("waveform.png");
+        float[] expected = processor.transformByPixel(bitmap);
+        float[] actual = processor.transform(bitmap);
+        assertThat(actual).hasSize(bitmap.getWidth());
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    public void test_bulkMatchesPerPixelForOddHeight() {
+        Bitmap bitmap = Bitmap.createBitmap(50, 37, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.WHITE);
+        for (int x = 0; x < bitmap.getWidth(); x++) {
+            // Cut out a band of varying height, leaving some columns untouched
+            int top = (x * 7) % 19;
+            for (int y = top; x % 5 != 0 && y < bitmap.getHeight() - top; y++) {
+                bitmap.setPixel(x, y, Color.TRANSPARENT);
+            }
+        }
+        assertThat(processor.transform(bitmap)).isEqualTo(processor.transformByPixel(bitmap));
+    }
+
+    public void test_opaqueBitmapHasNoAmplitude() {
+        Bitmap bitmap = Bitmap.createBitmap(20, 40, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.WHITE);
+        assertThat(processor.transform(bitmap)).isEqualTo(new float[20]);
+    }
+
+    public void test_transparentBitmapHasFullAmplitude() {
+        Bitmap bitmap = Bitmap.createBitmap(20, 40, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.TRANSPARENT);
+        for (float amplitude : processor.transform(bitmap)) {
+            assertThat(amplitude).isEqualTo(1f);
+        }
+    }
+
+    private Bitmap readTestBitmap(String filename) {
+        InputStream inputStream = getContext().getClassLoader().getResourceAsStream(filename);
+        if (inputStream == null)
+            throw new IllegalArgumentException("Test data file not found on classpath: " + filename);
+        try {
+            return BitmapFactory.decodeStream(inputStream);
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+}
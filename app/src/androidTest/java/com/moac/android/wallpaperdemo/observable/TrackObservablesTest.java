@@ -0,0 +1,241 @@
+package com.moac.android.wallpaperdemo.observable;
+
+import android.test.AndroidTestCase;
+
+import com.google.gson.Gson;
+import com.moac.android.wallpaperdemo.api.JsonWaveformSource;
+import com.moac.android.wallpaperdemo.api.SoundCloudClient;
+import com.moac.android.wallpaperdemo.api.WaveformSource;
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.gfx.DecodeSize;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import retrofit.RestAdapter;
+import retrofit.client.Header;
+import retrofit.client.Response;
+import retrofit.mime.TypedByteArray;
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class TrackObservablesTest extends AndroidTestCase {
+
+    static final int TRACK_COUNT = 8;
+    static final long LATENCY_MS = 250;
+
+    MockWebServer server;
+    JsonWaveformSource source;
+    AtomicInteger inFlight;
+    AtomicInteger maxInFlight;
+    AtomicLong firstWaveformRequestNanos;
+
+    @Override
+    public void setUp() throws IOException {
+        inFlight = new AtomicInteger();
+        maxInFlight = new AtomicInteger();
+        firstWaveformRequestNanos = new AtomicLong();
+        server = new MockWebServer();
+        // Every waveform takes a CDN round trip
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (request.getPath().startsWith("/tracks")) {
+                    // Trickles in, so there's time to start on waveforms before the end
+                    return new MockResponse().setBody(createTracksJson()).throttleBody(256, 100, TimeUnit.MILLISECONDS);
+                }
+                if (firstWaveformRequestNanos.get() == 0) {
+                    firstWaveformRequestNanos.compareAndSet(0, System.nanoTime());
+                }
+                int current = inFlight.incrementAndGet();
+                synchronized (maxInFlight) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), current));
+                }
+                try {
+                    Thread.sleep(LATENCY_MS);
+                    return new MockResponse().setBody("{\"width\":3,\"height\":10,\"samples\":[2,5,10]}");
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        });
+        server.play();
+        source = new JsonWaveformSource(new OkHttpClient(), "http://" + server.getHostName() + ":" + server.getPort());
+    }
+
+    @Override
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    public void test_sequentialLoadsOneAtATime() {
+        long start = System.nanoTime();
+        List<Track> loaded = TrackObservables.fromStream(Observable.from(createTracks()), source, null, 1, null).toList().toBlocking().single();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertThat(loaded).hasSize(TRACK_COUNT);
+        assertThat(maxInFlight.get()).isEqualTo(1);
+        assertThat(elapsedMs).isGreaterThanOrEqualTo(TRACK_COUNT * LATENCY_MS);
+    }
+
+    public void test_parallelLoadsAreBoundedAndFaster() {
+        long start = System.nanoTime();
+        List<Track> loaded = TrackObservables.fromStream(Observable.from(createTracks()), source, null, 4, null).toList().toBlocking().single();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertThat(loaded).hasSize(TRACK_COUNT);
+        for (Track track : loaded) {
+            assertThat(track.getWaveform().size()).isEqualTo(3);
+        }
+        assertThat(maxInFlight.get()).isGreaterThan(1).isLessThanOrEqualTo(4);
+        // Two rounds of four, with plenty of slack for a slow device
+        assertThat(elapsedMs).isLessThan(TRACK_COUNT * LATENCY_MS / 2 + LATENCY_MS);
+    }
+
+    public void test_concurrencyOfOneIsSequential() {
+        List<Track> loaded = TrackObservables.fromStream(Observable.from(createTracks()), source, null, 1, null).toList().toBlocking().single();
+        assertThat(loaded).hasSize(TRACK_COUNT);
+        assertThat(maxInFlight.get()).isEqualTo(1);
+    }
+
+    public void test_knownTracksAreNotDownloaded() {
+        final Set<Long> known = new HashSet<Long>(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L));
+        DedupeFilter dedupe = new DedupeFilter(new DedupeFilter.KnownIds() {
+            @Override
+            public boolean contains(long id) {
+                return known.contains(id);
+            }
+        });
+        List<Track> loaded = TrackObservables.fromStream(Observable.from(createTracks()), source, null, 4, dedupe).toList().toBlocking().single();
+
+        assertThat(loaded).hasSize(2);
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        assertThat(dedupe.getPassedCount()).isEqualTo(2);
+        assertThat(dedupe.getSkippedCount()).isEqualTo(6);
+    }
+
+    public void test_duplicatesWithinAResponseAreLoadedOnce() {
+        List<Track> tracks = createTracks();
+        tracks.addAll(createTracks());
+        DedupeFilter dedupe = new DedupeFilter(new DedupeFilter.KnownIds() {
+            @Override
+            public boolean contains(long id) {
+                return false;
+            }
+        });
+        List<Track> loaded = TrackObservables.fromStream(Observable.from(tracks), source, null, 4, dedupe).toList().toBlocking().single();
+
+        assertThat(loaded).hasSize(TRACK_COUNT);
+        assertThat(server.getRequestCount()).isEqualTo(TRACK_COUNT);
+        assertThat(dedupe.getSkippedCount()).isEqualTo(TRACK_COUNT);
+
+        // Next refresh counts afresh
+        dedupe.reset();
+        assertThat(dedupe.getPassedCount()).isEqualTo(0);
+        assertThat(dedupe.getSkippedCount()).isEqualTo(0);
+    }
+
+    public void test_streamedTracksLoadWaveformsBeforeTheBodyEnds() {
+        final SoundCloudClient api = new RestAdapter.Builder()
+                .setEndpoint("http://" + server.getHostName() + ":" + server.getPort())
+                .build()
+                .create(SoundCloudClient.class);
+        final AtomicLong parsedNanos = new AtomicLong();
+        Observable<Track> parsed = Observable.defer(new Func0<Observable<Track>>() {
+            @Override
+            public Observable<Track> call() {
+                return TrackObservables.fromResponse(api.streamTracks("techno", TRACK_COUNT, 0));
+            }
+        }).doOnCompleted(new Action0() {
+            @Override
+            public void call() {
+                parsedNanos.set(System.nanoTime());
+            }
+        });
+
+        List<Track> loaded = TrackObservables.fromStream(parsed, source, null, 4, null).toList().toBlocking().single();
+
+        assertThat(loaded).hasSize(TRACK_COUNT);
+        assertThat(firstWaveformRequestNanos.get()).isGreaterThan(0).isLessThan(parsedNanos.get());
+    }
+
+    public void test_waveformThatThrowsDropsOnlyItsTrack() {
+        WaveformSource throwing = new WaveformSource() {
+            @Override
+            public float[] load(Track track, DecodeSize decodeSize) throws IOException {
+                if (track.getId() == 3) {
+                    throw new IllegalArgumentException("Not a waveform");
+                }
+                return source.load(track, decodeSize);
+            }
+        };
+        List<Track> loaded = TrackObservables.fromStream(Observable.from(createTracks()), throwing, null, 4, null).toList().toBlocking().single();
+
+        assertThat(loaded).hasSize(TRACK_COUNT - 1);
+        for (Track track : loaded) {
+            assertThat(track.getId()).isNotEqualTo(3L);
+        }
+    }
+
+    public void test_stringWhereNumberExpectedIsMalformed() {
+        Response response = new Response("http://example.com/tracks", 200, "OK", Collections.<Header>emptyList(),
+                new TypedByteArray("application/json", "[{\"id\":\"one\",\"title\":\"One\"}]".getBytes()));
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        TrackObservables.fromResponse(response).subscribe(new Action1<Track>() {
+            @Override
+            public void call(Track track) {
+                fail("Track with a non-numeric id should not be emitted");
+            }
+        }, new Action1<Throwable>() {
+            @Override
+            public void call(Throwable e) {
+                error.set(e);
+            }
+        });
+
+        assertThat(error.get()).isInstanceOf(IOException.class).hasMessageContaining("Malformed tracks JSON");
+        assertThat(error.get().getCause()).isInstanceOf(NumberFormatException.class);
+    }
+
+    private static String createTracksJson() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < TRACK_COUNT; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"kind\":\"track\",\"id\":").append(i)
+                    .append(",\"title\":\"Track ").append(i)
+                    .append("\",\"tag_list\":\"Techno Mix Deep House Minimal\",\"streamable\":true,\"label_id\":null")
+                    .append(",\"user\":{\"id\":").append(100 + i).append(",\"username\":\"User ").append(i).append("\"}")
+                    .append(",\"waveform_url\":\"https://w1.sndcdn.com/track").append(i).append("_m.png\"}");
+        }
+        return json.append(']').toString();
+    }
+
+    private static List<Track> createTracks() {
+        List<Track> tracks = new ArrayList<Track>();
+        for (int i = 0; i < TRACK_COUNT; i++) {
+            tracks.add(new Gson().fromJson("{\"id\":" + i + ",\"title\":\"Track " + i + "\",\"waveform_url\":\"https://w1.sndcdn.com/track" + i + "_m.png\"}", Track.class));
+        }
+        return tracks;
+    }
+}
@@ -0,0 +1,185 @@
+package com.moac.android.wallpaperdemo.store;
+
+import android.test.AndroidTestCase;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.api.model.Waveform;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Sadly not using JUnit 4
+public class WaveformStoreTest extends AndroidTestCase {
+
+    File file;
+    WaveformStore store;
+
+    @Override
+    public void setUp() throws IOException {
+        file = File.createTempFile("waveforms", ".store");
+        store = new WaveformStore(file, 1024 * 1024);
+    }
+
+    @Override
+    public void tearDown() {
+        store.close();
+        file.delete();
+    }
+
+    public void test_storedTrackIsReturned() throws IOException {
+        store.put(new Track(42, "Title ♫", "http://soundcloud.com/a/b"), createWaveform(100, 1));
+
+        Track track = store.get(42);
+        assertThat(track.getId()).isEqualTo(42);
+        assertThat(track.getTitle()).isEqualTo("Title ♫");
+        assertThat(track.getPermalinkUrl()).isEqualTo("http://soundcloud.com/a/b");
+        assertThat(track.getWaveform().toQuantized()).isEqualTo(createWaveform(100, 1).toQuantized());
+        assertThat(store.contains(42)).isTrue();
+        assertThat(store.get(43)).isNull();
+    }
+
+    public void test_nullMetadataIsStored() throws IOException {
+        store.put(new Track(1, null, null), createWaveform(10, 1));
+        Track track = store.get(1);
+        assertThat(track.getTitle()).isNull();
+        assertThat(track.getPermalinkUrl()).isNull();
+    }
+
+    public void test_survivesReopening() throws IOException {
+        store.put(new Track(1, "One", null), createWaveform(100, 1));
+        store.put(new Track(2, "Two", null), createWaveform(100, 2));
+        reopen();
+
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.get(2).getTitle()).isEqualTo("Two");
+        assertThat(store.get(2).getWaveform().toQuantized()).isEqualTo(createWaveform(100, 2).toQuantized());
+    }
+
+    public void test_latestRecordForAnIdWins() throws IOException {
+        store.put(new Track(1, "Old", null), createWaveform(100, 1));
+        store.put(new Track(1, "New", null), createWaveform(50, 2));
+        reopen();
+
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.get(1).getTitle()).isEqualTo("New");
+        assertThat(store.get(1).getWaveform().size()).isEqualTo(50);
+    }
+
+    public void test_recentTracksAreNewestFirst() throws IOException {
+        store.put(new Track(1, "One", null), createWaveform(10, 1));
+        store.put(new Track(2, "Two", null), createWaveform(10, 2));
+        store.put(new Track(3, "Three", null), createWaveform(10, 3));
+        store.put(new Track(1, "One again", null), createWaveform(10, 4));
+
+        List<Track> recent = store.getRecent(2);
+        assertThat(recent).hasSize(2);
+        assertThat(recent.get(0).getTitle()).isEqualTo("One again");
+        assertThat(recent.get(1).getTitle()).isEqualTo("Three");
+    }
+
+    public void test_tornWriteIsDiscarded() throws IOException {
+        store.put(new Track(1, "One", null), createWaveform(100, 1));
+        store.put(new Track(2, "Two", null), createWaveform(100, 2));
+        long goodSize = store.getFileSizeInBytes();
+        store.put(new Track(3, "Three", null), createWaveform(100, 3));
+        store.close();
+
+        // Crashed part way through the last write
+        truncate(file, goodSize + 30);
+        reopen();
+
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.get(3)).isNull();
+        assertThat(file.length()).isEqualTo(goodSize);
+
+        // And carries on
+        store.put(new Track(3, "Three", null), createWaveform(100, 3));
+        reopen();
+        assertThat(store.get(3).getTitle()).isEqualTo("Three");
+    }
+
+    public void test_corruptRecordIsDiscarded() throws IOException {
+        store.put(new Track(1, "One", null), createWaveform(100, 1));
+        long goodSize = store.getFileSizeInBytes();
+        store.put(new Track(2, "Two", null), createWaveform(100, 2));
+        store.close();
+
+        // Flip a bit in the second record's waveform
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(file.length() - 10);
+            int b = raf.read();
+            raf.seek(file.length() - 10);
+            raf.write(b ^ 0x01);
+        } finally {
+            raf.close();
+        }
+        reopen();
+
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.get(2)).isNull();
+        assertThat(store.getFileSizeInBytes()).isEqualTo(goodSize);
+    }
+
+    public void test_otherFileIsReplaced() throws IOException {
+        store.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.writeBytes("not a waveform store");
+        } finally {
+            raf.close();
+        }
+        reopen();
+
+        assertThat(store.size()).isEqualTo(0);
+        store.put(new Track(1, "One", null), createWaveform(10, 1));
+        assertThat(store.get(1).getTitle()).isEqualTo("One");
+    }
+
+    public void test_compactionKeepsNewestWithinLimit() throws IOException {
+        store.close();
+        final long maxBytes = 8 * 1024;
+        store = new WaveformStore(file, maxBytes);
+        for (int id = 0; id < 40; id++) {
+            store.put(new Track(id, "Track " + id, null), createWaveform(500, id));
+            assertThat(file.length()).isLessThanOrEqualTo(maxBytes);
+        }
+
+        assertThat(store.getCompactionCount()).isGreaterThan(0);
+        assertThat(store.get(39).getTitle()).isEqualTo("Track 39");
+        assertThat(store.get(0)).isNull();
+        assertThat(new File(file.getPath() + ".compact").exists()).isFalse();
+
+        // Compacted file is a valid store
+        int size = store.size();
+        reopen();
+        assertThat(store.size()).isEqualTo(size);
+        assertThat(store.get(39).getWaveform().toQuantized()).isEqualTo(createWaveform(500, 39).toQuantized());
+    }
+
+    private void reopen() {
+        store.close();
+        store = new WaveformStore(file, 1024 * 1024);
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static Waveform createWaveform(int size, int seed) {
+        float[] amplitudes = new float[size];
+        for (int i = 0; i < size; i++) {
+            amplitudes[i] = ((i * 31 + seed * 17) % 256) / 255f;
+        }
+        return Waveform.quantize(amplitudes);
+    }
+}
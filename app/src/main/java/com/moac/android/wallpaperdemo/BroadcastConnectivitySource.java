@@ -0,0 +1,54 @@
+package com.moac.android.wallpaperdemo;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+import static com.moac.android.wallpaperdemo.util.DeviceUtils.isNetworkAvailable;
+
+/**
+ * Connectivity from the system's network status broadcasts. A receiver is registered only
+ * while changes are subscribed to; the broadcast is sticky, so expect an emission at once.
+ */
+public class BroadcastConnectivitySource implements ConnectivitySource {
+
+    private final Context mContext;
+
+    public BroadcastConnectivitySource(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isNetworkAvailable(mContext);
+    }
+
+    @Override
+    public Observable<Boolean> changes() {
+        return Observable.create(new Observable.OnSubscribe<Boolean>() {
+            @Override
+            public void call(final Subscriber<? super Boolean> subscriber) {
+                final BroadcastReceiver receiver = new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        subscriber.onNext(isConnected());
+                    }
+                };
+                mContext.registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+                subscriber.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        mContext.unregisterReceiver(receiver);
+                    }
+                }));
+            }
+        });
+    }
+}
@@ -0,0 +1,16 @@
+package com.moac.android.wallpaperdemo;
+
+import rx.Observable;
+
+/**
+ * Whether the network can be used, and when that may have changed
+ */
+public interface ConnectivitySource {
+
+    public boolean isConnected();
+
+    /**
+     * Emits whether connected each time connectivity may have changed, until unsubscribed
+     */
+    public Observable<Boolean> changes();
+}
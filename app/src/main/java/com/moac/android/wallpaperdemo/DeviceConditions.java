@@ -0,0 +1,27 @@
+package com.moac.android.wallpaperdemo;
+
+import android.content.Context;
+
+import com.moac.android.wallpaperdemo.util.DeviceUtils;
+
+/**
+ * The device's current network and power state, read when asked
+ */
+public class DeviceConditions implements ReloadPolicy.Conditions {
+
+    private final Context mContext;
+
+    public DeviceConditions(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public boolean isUnmetered() {
+        return DeviceUtils.isNetworkUnmetered(mContext);
+    }
+
+    @Override
+    public boolean isCharging() {
+        return DeviceUtils.isCharging(mContext);
+    }
+}
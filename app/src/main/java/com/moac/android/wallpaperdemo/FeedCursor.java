@@ -0,0 +1,103 @@
+package com.moac.android.wallpaperdemo;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.moac.android.wallpaperdemo.api.SoundCloudClient;
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.observable.TrackObservables;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+
+/**
+ * Where the producer has got to in the results for its search term, so that each reload
+ * fetches the next page of tracks rather than the same first page again. Walks forward a
+ * page per reload, and wraps back to the start once the results run out.
+ * <p/>
+ * Kept in its own preferences file, so a restart carries on where it left off without
+ * the wallpaper's settings listener seeing every step. Thread safe.
+ */
+public class FeedCursor {
+
+    private static final String TAG = FeedCursor.class.getSimpleName();
+
+    private static final String SEARCH_TERM_KEY = "search_term";
+    private static final String OFFSET_KEY = "offset";
+
+    // The API refuses to page any deeper than this
+    static final long MAX_OFFSET = 8000;
+
+    private final SharedPreferences mPreferences;
+
+    public FeedCursor(SharedPreferences preferences) {
+        mPreferences = preferences;
+    }
+
+    /**
+     * Emits each track of the next page for the search term as soon as it's parsed from the
+     * response, moving the cursor past the page once it has been read. The request is made,
+     * blocking, on subscription, so the offset is read then. A response with no body, as for
+     * a page unchanged since last fetched, leaves the cursor where it is.
+     */
+    public Observable<Track> nextPageStream(final SoundCloudClient api, final String searchTerm, final long limit) {
+        return Observable.defer(new Func0<Observable<Track>>() {
+            @Override
+            public Observable<Track> call() {
+                final long offset = getOffset(searchTerm);
+                Log.i(TAG, "nextPageStream() - search term: " + searchTerm + " offset: " + offset);
+                final Response response;
+                try {
+                    response = api.streamTracks(searchTerm, limit, offset);
+                } catch (RetrofitError e) {
+                    return Observable.error(e);
+                }
+                final AtomicInteger received = new AtomicInteger();
+                return TrackObservables.fromResponse(response).doOnNext(new Action1<Track>() {
+                    @Override
+                    public void call(Track track) {
+                        received.incrementAndGet();
+                    }
+                }).doOnCompleted(new Action0() {
+                    @Override
+                    public void call() {
+                        // No body, no page seen to know how far to move
+                        if (response.getBody() != null) {
+                            advance(searchTerm, offset, limit, received.get());
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * The offset of the next page for the search term; 0 if the term has changed
+     */
+    public synchronized long getOffset(String searchTerm) {
+        String cursorTerm = mPreferences.getString(SEARCH_TERM_KEY, null);
+        if (cursorTerm == null || !cursorTerm.equals(searchTerm)) {
+            return 0;
+        }
+        return mPreferences.getLong(OFFSET_KEY, 0);
+    }
+
+    synchronized void advance(String searchTerm, long offset, long limit, long received) {
+        // A short page means the results have run out
+        long next = offset + received;
+        if (received < limit || next + limit > MAX_OFFSET) {
+            Log.i(TAG, "advance() - wrapping to the start after offset: " + offset);
+            next = 0;
+        }
+        mPreferences.edit()
+                .putString(SEARCH_TERM_KEY, searchTerm)
+                .putLong(OFFSET_KEY, next)
+                .apply();
+    }
+}
@@ -0,0 +1,71 @@
+package com.moac.android.wallpaperdemo;
+
+/**
+ * Decides how long to wait before the next reload, rather than reloading at a fixed rate
+ * whatever happens.
+ * <p/>
+ * Starting from the user's reload rate, the delay doubles with each reload in a row that
+ * brings nothing new, up to a ceiling, and returns to the reload rate as soon as one does,
+ * or the search term changes. While the device is charging on an unmetered network,
+ * reloads cost little, so the delay is halved.
+ * <p/>
+ * Has no Android dependencies; the device's state comes from the {@link Conditions}
+ * given. Thread safe.
+ */
+public class ReloadPolicy {
+
+    public interface Conditions {
+        public boolean isUnmetered();
+
+        public boolean isCharging();
+    }
+
+    // Backs off to at most 8x the reload rate
+    static final int MAX_BACKOFF_STEPS = 3;
+    static final long MAX_DELAY_SEC = 24 * 60 * 60;
+    static final long MIN_DELAY_SEC = 60;
+    static final int UNMETERED_CHARGING_DIVISOR = 2;
+
+    private final Conditions mConditions;
+    private String mSearchTerm;
+    private long mBaseDelaySec;
+    private int mUnchangedCount;
+
+    public ReloadPolicy(Conditions conditions) {
+        mConditions = conditions;
+    }
+
+    /**
+     * Sets the user's reload rate, forgetting any back off if the search term has changed
+     */
+    public synchronized void start(String searchTerm, long baseDelaySec) {
+        if (mSearchTerm == null || !mSearchTerm.equals(searchTerm)) {
+            mUnchangedCount = 0;
+        }
+        mSearchTerm = searchTerm;
+        mBaseDelaySec = baseDelaySec;
+    }
+
+    /**
+     * Records the outcome of a reload
+     *
+     * @param changed true if it brought anything new
+     */
+    public synchronized void onReloaded(boolean changed) {
+        mUnchangedCount = changed ? 0 : mUnchangedCount + 1;
+    }
+
+    public synchronized long getNextDelaySeconds() {
+        int steps = Math.min(mUnchangedCount, MAX_BACKOFF_STEPS);
+        // Never back off to beyond the ceiling, but never below the user's own rate either
+        long delay = Math.max(mBaseDelaySec, Math.min(mBaseDelaySec << steps, MAX_DELAY_SEC));
+        if (mConditions.isUnmetered() && mConditions.isCharging()) {
+            delay = Math.max(delay / UNMETERED_CHARGING_DIVISOR, Math.min(mBaseDelaySec, MIN_DELAY_SEC));
+        }
+        return delay;
+    }
+
+    synchronized int getUnchangedCount() {
+        return mUnchangedCount;
+    }
+}
@@ -0,0 +1,46 @@
+package com.moac.android.wallpaperdemo;
+
+import java.util.Random;
+
+/**
+ * Delays between retries of a failing operation; doubling with each attempt up to a
+ * ceiling, with jitter so that many clients failing together don't retry together.
+ * <p/>
+ * Each delay is at least half of its un-jittered value, so retries always back off.
+ * Thread safe.
+ */
+public class RetryBackoff {
+
+    private final long mBaseDelayMs;
+    private final long mMaxDelayMs;
+    private final Random mRandom;
+    private int mAttemptCount;
+
+    public RetryBackoff(long baseDelayMs, long maxDelayMs, Random random) {
+        mBaseDelayMs = baseDelayMs;
+        mMaxDelayMs = maxDelayMs;
+        mRandom = random;
+    }
+
+    /**
+     * Returns the delay before the next attempt, counting it
+     */
+    public synchronized long nextDelayMs() {
+        // Shifting past 30 would overflow long before reaching any sensible ceiling
+        long delay = Math.min(mBaseDelayMs << Math.min(mAttemptCount, 30), mMaxDelayMs);
+        mAttemptCount++;
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+
+    /**
+     * Starts again from the base delay, after a success
+     */
+    public synchronized void reset() {
+        mAttemptCount = 0;
+    }
+
+    public synchronized int getAttemptCount() {
+        return mAttemptCount;
+    }
+}
@@ -0,0 +1,95 @@
+package com.moac.android.wallpaperdemo;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded pool of tracks, cycled through one at a time. Once full, each track published
+ * replaces the oldest, letting new tracks slowly take the place of old.
+ * <p/>
+ * An array backed ring, with atomic publish and read counters rather than locks, so any
+ * number of threads can publish and take tracks concurrently without blocking.
+ */
+public class TrackPool {
+
+    private final AtomicReferenceArray<Track> mSlots;
+    private final AtomicLong mPublishCount = new AtomicLong();
+    private final AtomicLong mReadCount = new AtomicLong();
+
+    public TrackPool(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        mSlots = new AtomicReferenceArray<Track>(capacity);
+    }
+
+    public int capacity() {
+        return mSlots.length();
+    }
+
+    public int size() {
+        return (int) Math.min(mPublishCount.get(), mSlots.length());
+    }
+
+    public boolean isEmpty() {
+        return mPublishCount.get() == 0;
+    }
+
+    /**
+     * Adds the track, replacing the oldest if full
+     *
+     * @return the track replaced, or null if none
+     */
+    public Track publish(Track track) {
+        if (track == null)
+            throw new IllegalArgumentException("Track must not be null");
+        long index = mPublishCount.getAndIncrement();
+        return mSlots.getAndSet((int) (index % mSlots.length()), track);
+    }
+
+    /**
+     * Returns the next track in turn, or null if the pool is empty
+     */
+    public Track next() {
+        final int size = size();
+        if (size == 0)
+            return null;
+        // A slot may be claimed but not yet filled; skip on through the rest, at least one of
+        // which is filled once a track is published, as filled slots are only ever replaced.
+        final long index = mReadCount.getAndIncrement();
+        for (int attempt = 0; attempt < size; attempt++) {
+            Track track = mSlots.get((int) ((index + attempt) % size));
+            if (track != null)
+                return track;
+        }
+        return null;
+    }
+
+    public boolean contains(long id) {
+        for (int i = 0; i < mSlots.length(); i++) {
+            Track track = mSlots.get(i);
+            if (track != null && track.getId() == id)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns up to limit tracks, most recently published last
+     */
+    public List<Track> getRecent(int limit) {
+        final long published = mPublishCount.get();
+        final int count = (int) Math.min(Math.min(published, mSlots.length()), limit);
+        List<Track> tracks = new ArrayList<Track>(count);
+        for (long index = published - count; index < published; index++) {
+            Track track = mSlots.get((int) (index % mSlots.length()));
+            if (track != null) {
+                tracks.add(track);
+            }
+        }
+        return tracks;
+    }
+}
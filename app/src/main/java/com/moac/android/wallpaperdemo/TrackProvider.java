@@ -1,122 +1,303 @@
 package com.moac.android.wallpaperdemo;
 
-import android.content.Context;
 import android.util.Log;
 
 import com.moac.android.wallpaperdemo.api.SoundCloudClient;
+import com.moac.android.wallpaperdemo.api.WaveformSource;
 import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.gfx.DecodeSize;
+import com.moac.android.wallpaperdemo.observable.DedupeFilter;
 import com.moac.android.wallpaperdemo.observable.TrackObservables;
-import com.squareup.picasso.Picasso;
+import com.moac.android.wallpaperdemo.store.WaveformStore;
 
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import rx.Observable;
 import rx.Observer;
+import rx.Scheduler;
 import rx.Subscription;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.subjects.AsyncSubject;
 import rx.subscriptions.CompositeSubscription;
+import rx.subscriptions.SerialSubscription;
+import rx.subscriptions.Subscriptions;
 
-import static com.moac.android.wallpaperdemo.util.DeviceUtils.isNetworkAvailable;
-
-// TODO We should use a Subject for the mTrackList and let rx operators create the infinite sequence
 public class TrackProvider {
 
     private static final String TAG = TrackProvider.class.getSimpleName();
 
-    private final Context mContext;
-    private final Picasso mPicasso;
+    // Waveforms downloaded and processed at once; each is a separate CDN round trip
+    private static final int WAVEFORM_DOWNLOAD_CONCURRENCY = 4;
+
+    // Retries after a failure start after a couple of seconds, backing off to minutes
+    private static final long RETRY_BASE_DELAY_MS = 2000;
+    private static final long RETRY_MAX_DELAY_MS = 5 * 60 * 1000;
+
+    public interface OnTrackEvictedListener {
+        /**
+         * The track has left the pool and won't be returned again
+         */
+        public void onTrackEvicted(Track track);
+    }
+
+    private final ConnectivitySource mConnectivity;
     private final SoundCloudClient mApi;
-    private LinkedList<Track> mTrackList;
-    private Lock mLock;
-    private Condition mTracksExist;
+    private final WaveformSource mWaveformSource;
+    private final WaveformStore mWaveformStore;
+    private final FeedCursor mFeedCursor;
+    private final ReloadPolicy mReloadPolicy;
+    private final RetryBackoff mRetryBackoff = new RetryBackoff(RETRY_BASE_DELAY_MS, RETRY_MAX_DELAY_MS, new Random());
+    private Scheduler mScheduler = AndroidSchedulers.mainThread();
+    // Replaced when the fetch limit changes, published to from io threads and read from the main thread
+    private volatile TrackPool mPool;
+    // Completes with the first track published to any pool, so it outlives a resize
+    private final AsyncSubject<Track> mReady = AsyncSubject.create();
+    private final AtomicBoolean mIsReady = new AtomicBoolean();
+    private volatile DecodeSize mDecodeSize;
+    private OnTrackEvictedListener mOnTrackEvictedListener;
+
+    private final DedupeFilter mDedupeFilter = new DedupeFilter(new DedupeFilter.KnownIds() {
+        @Override
+        public boolean contains(long id) {
+            return mPool.contains(id);
+        }
+    });
 
-    public TrackProvider(Context context, SoundCloudClient api, Picasso picasso) {
-        mContext = context;
+    public TrackProvider(ConnectivitySource connectivity, SoundCloudClient api, WaveformSource waveformSource, WaveformStore waveformStore,
+                         FeedCursor feedCursor, ReloadPolicy reloadPolicy) {
+        mConnectivity = connectivity;
         mApi = api;
-        mPicasso = picasso;
-        mTrackList = new LinkedList<Track>();
-        mLock = new ReentrantLock();
-        mTracksExist = mLock.newCondition();
+        mWaveformSource = waveformSource;
+        mWaveformStore = waveformStore;
+        mFeedCursor = feedCursor;
+        mReloadPolicy = reloadPolicy;
+        // Resized to the fetch limit once loading starts
+        mPool = new TrackPool(1);
     }
 
+    /**
+     * Loads tracks now, then again after each delay given by the reload policy, until unsubscribed.
+     * A failed load is retried with backoff, or when connectivity returns if it was lost.
+     */
     public Subscription loadTracksPeriodically(final String searchTerm, final long limit, long reloadPeriodSec) {
-        final CompositeSubscription subscription = new CompositeSubscription();
-        subscription.add(AndroidSchedulers.mainThread().createWorker().schedulePeriodically(new Action0() {
-            @Override
-            public void call() {
-                if (!isNetworkAvailable(mContext)) {
-                    Log.i(TAG, "loadTracksPeriodically() - network unavailable");
-                    return;
+        ensurePoolCapacity((int) limit);
+        mReloadPolicy.start(searchTerm, reloadPeriodSec);
+        mRetryBackoff.reset();
+        final Reloader reloader = new Reloader(searchTerm, limit);
+        reloader.start();
+        return reloader.mSubscription;
+    }
+
+    // Runs each load, then schedules the next
+    private class Reloader implements Action0 {
+
+        private final String mSearchTerm;
+        private final long mLimit;
+        private final Scheduler.Worker mWorker = mScheduler.createWorker();
+        private final CompositeSubscription mSubscription = new CompositeSubscription();
+        // At most one load is ever waiting to run
+        private final SerialSubscription mPending = new SerialSubscription();
+        private final AtomicBoolean mIsAwaitingConnectivity = new AtomicBoolean();
+
+        Reloader(String searchTerm, long limit) {
+            mSearchTerm = searchTerm;
+            mLimit = limit;
+        }
+
+        void start() {
+            mSubscription.add(mWorker);
+            mSubscription.add(mPending);
+            mSubscription.add(mConnectivity.changes().subscribe(new Action1<Boolean>() {
+                @Override
+                public void call(Boolean isConnected) {
+                    if (isConnected && mIsAwaitingConnectivity.compareAndSet(true, false)) {
+                        Log.i(TAG, "loadTracksPeriodically() - connectivity restored, reloading");
+                        schedule(0);
+                    }
                 }
-                Log.i(TAG, "loadTracksPeriodically() - ### POTENTIAL NETWORK CALL ###");
-
-                // Fetch a new set of track & waveforms from the API - observed in io thread
-                subscription.add(TrackObservables.from(mApi.getTracks(searchTerm, limit), mPicasso).subscribe(
-                        new Observer<Track>() {
-
-                            @Override
-                            public void onNext(Track response) {
-                                Log.i(TAG, "loadTracksPeriodically() - Track received: " + response.getTitle());
-
-                                // Keep some tracks in the list, let new ones slowly take their place.
-                                // You get a mixture of tracks when result set size < limit.
-                                if (mTrackList.size() >= limit) {
-                                    mTrackList.removeFirst();
-                                }
-                                mTrackList.addLast(response);
-                                mLock.lock();
-                                try {
-                                    mTracksExist.signalAll();
-                                } finally {
-                                    mLock.unlock();
-                                }
-                            }
+            }));
+            schedule(0);
+        }
 
-                            @Override
-                            public void onCompleted() {
-                            }
+        @Override
+        public void call() {
+            if (!mConnectivity.isConnected()) {
+                Log.i(TAG, "loadTracksPeriodically() - network unavailable");
+                if (mPool.isEmpty()) {
+                    // Better to show what we had last time than nothing
+                    mSubscription.add(loadStoredTracks(mLimit));
+                }
+                awaitConnectivity();
+                return;
+            }
+            Log.i(TAG, "loadTracksPeriodically() - ### POTENTIAL NETWORK CALL ###");
 
-                            @Override
-                            public void onError(Throwable e) {
-                                Log.w(TAG, "loadTracksPeriodically() onError()", e);
-                                // TODO Display message if nothing else to show.
-                                // Note: There may still be tracks in mTracks
+            // Fetch the next page of tracks & waveforms from the API - observed in io thread
+            // Tracks already in the pool keep their waveforms, only new ones are loaded
+            mDedupeFilter.reset();
+            // Tracks are parsed one at a time as the response arrives, so the first waveforms load meanwhile
+            mSubscription.add(TrackObservables.fromStream(mFeedCursor.nextPageStream(mApi, mSearchTerm, mLimit), mWaveformSource, mDecodeSize,
+                    WAVEFORM_DOWNLOAD_CONCURRENCY, mDedupeFilter).subscribe(new TrackObserver() {
+                        @Override
+                        public void onCompleted() {
+                            Log.i(TAG, String.format("loadTracksPeriodically() - Refreshed, loaded: %d, skipped as already in pool: %d",
+                                    mDedupeFilter.getPassedCount(), mDedupeFilter.getSkippedCount()));
+                            mRetryBackoff.reset();
+                            // Nothing new, including unchanged since the last poll, backs off
+                            mReloadPolicy.onReloaded(mDedupeFilter.getPassedCount() > 0);
+                            schedule(TimeUnit.SECONDS.toMillis(mReloadPolicy.getNextDelaySeconds()));
+                        }
+
+                        @Override
+                        public void onError(Throwable e) {
+                            super.onError(e);
+                            if (mPool.isEmpty()) {
+                                mSubscription.add(loadStoredTracks(mLimit));
+                            }
+                            if (mConnectivity.isConnected()) {
+                                schedule(mRetryBackoff.nextDelayMs());
+                            } else {
+                                awaitConnectivity();
                             }
                         }
-                ));
+                    }
+            ));
+        }
 
+        // No timer while offline; the next connectivity change reloads
+        private void awaitConnectivity() {
+            mPending.set(Subscriptions.empty());
+            mIsAwaitingConnectivity.set(true);
+            // Connected again since we last checked, the change may have been missed
+            if (mConnectivity.isConnected() && mIsAwaitingConnectivity.compareAndSet(true, false)) {
+                schedule(0);
             }
-        }, 0, reloadPeriodSec, TimeUnit.SECONDS)); // um, TimeUnit.MINUTES enum didn't exist until API Level 9!
-        return subscription;
+        }
+
+        private void schedule(long delayMs) {
+            Log.i(TAG, "schedule() - loading in: " + delayMs + "ms");
+            mPending.set(mWorker.schedule(this, delayMs, TimeUnit.MILLISECONDS));
+        }
     }
 
-    public void waitUntilReady() throws InterruptedException {
-        Log.i(TAG, "waitUntilReady() - consumer");
-        mLock.lock();
-        try {
-            while (mTrackList == null || mTrackList.isEmpty()) {
-                mTracksExist.await();
+    private Subscription loadStoredTracks(long limit) {
+        Log.i(TAG, "loadStoredTracks() - limit: " + limit);
+        return TrackObservables.fromStore(mWaveformStore, (int) limit).subscribe(new TrackObserver());
+    }
+
+    /*
+     * Keeps the newest tracks that fit when the limit changes. Loads from a previous call may
+     * still be publishing, as unsubscribing doesn't stop one mid-flight, so the new pool is
+     * swapped in before the tracks are copied across; publish() then catches any track that
+     * lands in the old pool too late to be copied.
+     */
+    private void ensurePoolCapacity(int capacity) {
+        TrackPool pool = mPool;
+        if (pool.capacity() == capacity) {
+            return;
+        }
+        TrackPool resized = new TrackPool(capacity);
+        mPool = resized;
+        List<Track> recent = pool.getRecent(pool.capacity());
+        for (int i = 0; i < recent.size(); i++) {
+            if (i < recent.size() - capacity) {
+                notifyEvicted(recent.get(i));
+            } else if (!resized.contains(recent.get(i).getId())) {
+                resized.publish(recent.get(i));
             }
-        } finally {
-            mLock.unlock();
         }
     }
 
-    public Track getNextTrack() {
-        if (mTrackList == null || mTrackList.isEmpty())
-            return null;
+    // Adds the track to the current pool, even if it's replaced meanwhile
+    private void publish(Track track) {
+        TrackPool pool = mPool;
+        Track evicted = pool.publish(track);
+        while (pool != mPool) {
+            // Replaced, perhaps after its tracks were copied; make sure this one made it across.
+            // Evictions from the old pool no longer matter.
+            pool = mPool;
+            evicted = pool.contains(track.getId()) ? null : pool.publish(track);
+        }
+        if (evicted != null) {
+            notifyEvicted(evicted);
+        }
+        if (mIsReady.compareAndSet(false, true)) {
+            mReady.onNext(track);
+            mReady.onCompleted();
+        }
+    }
+
+    private void notifyEvicted(Track track) {
+        if (mOnTrackEvictedListener != null) {
+            mOnTrackEvictedListener.onTrackEvicted(track);
+        }
+    }
+
+    // Adds tracks to the pool
+    private class TrackObserver implements Observer<Track> {
 
-        // Quick little hack to make a pseudo-circular queue
-        if (mTrackList.size() == 1)
-            return mTrackList.getFirst();
+        @Override
+        public void onNext(Track response) {
+            Log.i(TAG, "loadTracksPeriodically() - Track received: " + response.getTitle());
+
+            // Keep some tracks in the pool, let new ones slowly take their place.
+            // You get a mixture of tracks when result set size < limit.
+            publish(response);
+        }
 
-        Track first = mTrackList.removeFirst();
-        mTrackList.addLast(first);
-        return mTrackList.getFirst();
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            Log.w(TAG, "loadTracksPeriodically() onError()", e);
+            // TODO Display message if nothing else to show.
+            // Note: There may still be tracks in the pool
+        }
+    }
+
+    /**
+     * Sets the resolution subsequent waveforms are decoded at, or null for full resolution.
+     */
+    public void setDecodeSize(DecodeSize decodeSize) {
+        mDecodeSize = decodeSize;
+    }
+
+    /**
+     * Counts tracks loaded and skipped as duplicates by the most recent refresh
+     */
+    public DedupeFilter getDedupeFilter() {
+        return mDedupeFilter;
+    }
+
+    // For tests, which can't use the main thread
+    void setScheduler(Scheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    public void setOnTrackEvictedListener(OnTrackEvictedListener listener) {
+        mOnTrackEvictedListener = listener;
+    }
+
+    /**
+     * Emits the first track available, then completes; immediately if there already is one.
+     * Doesn't block, unlike waiting on a lock.
+     */
+    public Observable<Track> whenReady() {
+        return mReady;
+    }
+
+    /**
+     * Returns the next track in turn, or null if there are none yet. Any thread.
+     */
+    public Track getNextTrack() {
+        return mPool.next();
     }
 
 }
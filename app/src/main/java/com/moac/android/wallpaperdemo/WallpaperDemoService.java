@@ -3,9 +3,6 @@ package com.moac.android.wallpaperdemo;
 import android.app.WallpaperManager;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
@@ -18,18 +15,24 @@ import android.view.SurfaceHolder;
 import android.view.ViewConfiguration;
 
 import com.moac.android.wallpaperdemo.api.SoundCloudClient;
+import com.moac.android.wallpaperdemo.api.WaveformSource;
 import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.gfx.Frame;
+import com.moac.android.wallpaperdemo.gfx.SurfaceRenderer;
 import com.moac.android.wallpaperdemo.gfx.TrackDrawer;
+import com.moac.android.wallpaperdemo.gfx.WaveformMaskCache;
+import com.moac.android.wallpaperdemo.store.WaveformStore;
+import com.moac.android.wallpaperdemo.util.DeviceUtils;
 import com.moac.android.wallpaperdemo.util.NumberUtils;
-import com.squareup.picasso.Picasso;
 
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
+import rx.Observable;
 import rx.Subscription;
-import rx.functions.Action0;
-import rx.schedulers.Schedulers;
+import rx.functions.Action1;
+import rx.functions.Func1;
 
 /**
  * This is a demo of a live wallpaper using data retrieved from the SoundCloud API.
@@ -74,40 +77,38 @@ import rx.schedulers.Schedulers;
  * the period of the periodic fetching task. The cyclic displaying of images is
  * not affect by this as it is seen as lightweight.
  * <p/>
- * Things that aren't supported just yet -
- * <p/>
- * 1. Persistent caching other than that provided by the HTTP layer and Picasso's
- * own cache. This doesn't affect the wallpaper unless the user restarts their
- * phone in an area without a connection, in which they've no doubt got bigger
- * worries.
+ * Processed waveforms are also kept in a persistent store (see {@link WaveformStore}),
+ * so they're not downloaded and decoded again after a restart, and if the user
+ * restarts their phone in an area without a connection, the wallpaper comes up with
+ * the tracks it last showed.
  * <p/>
- * 2. Listening to Android Network Status Broadcasts to determine if the wallpaper
- * can attempt to initialise the track list following a fetch failure. If the user starts
- * the wallpaper when they don't have an internet connection, it will fail to fetch
- * and won't retry until the next poll. There's no error message. Ideally, there would
- * be a stylized picture.
+ * Each reload fetches the next page of results for the search term (see {@link FeedCursor}),
+ * using the API's "offset" parameter, rather than the same first page every time. So
+ * reloads bring in new tracks for the same cost, wrapping back to the start once the
+ * results run out, which makes for a better "discover" experience.
  * <p/>
- * 3. A set of constantly changing *new* tracks! It seems that without using the
- * search "offset" parameter users tend to get the same tracks for a given
- * query. This means that frequent refreshing of the track list if mostly pointless.
- * Perhaps the parameter's use could be introduced to provide a better "discover"
- * experience.
+ * A failed fetch is retried after a few seconds, backing off with each failure (see
+ * {@link RetryBackoff}), rather than waiting for the next poll. If the network is lost,
+ * nothing is retried until the Android Network Status Broadcasts say it's back (see
+ * {@link BroadcastConnectivitySource}), when the track list is fetched straight away.
  * <p/>
- * Proper known issues:
- * <p/>
- * 1. I've have noticed that sometimes the periodic subscriptions aren't actually
- * unsubscribed via the onDestroy call. This can be seen in the logs -
+ * Things that aren't supported just yet -
  * <p/>
- * 10-31 00:49:58.538: DEBUG/WallpaperDemoService(4487): onDestroy()com.moac.android.wallpaperdemo.WallpaperDemoService$WallpaperEngine@b517e350
- * ...
- * 10-31 00:52:50.790: INFO/WallpaperDemoService(4487): draw() - start: com.moac.android.wallpaperdemo.WallpaperDemoService$WallpaperEngine@b517e350 on: Thread[main,5,main]
- * repeat...
+ * 1. An error message when there's nothing to show. If the user starts the wallpaper
+ * without a connection, and nothing stored, they just see the placeholder. Ideally,
+ * there would be a stylized picture.
  * <p/>
- * This causes repeated canvas lock errors in draw() as the two Engines fight for control.
- * I'll have to look into whether this is an RxJava issue, or perhaps I'm just not doing
- * it right.
+ * Each Engine draws on its own render thread (see {@link SurfaceRenderer}) rather than
+ * the main thread, which it would otherwise share with touch handling and every other
+ * callback. The Engine only describes frames; the render thread alone locks the canvas,
+ * and only between the surface being created and destroyed.
  * <p/>
- * Someone else reported a similar issue - https://github.com/Netflix/RxJava/issues/431
+ * This stops the canvas lock errors from a known issue: sometimes the periodic
+ * subscriptions aren't actually unsubscribed via the onDestroy call (similar to
+ * https://github.com/Netflix/RxJava/issues/431), and two Engines fought for control of
+ * the canvas. A destroyed Engine's render thread has quit, so it can no longer draw. The
+ * leaked subscriptions themselves still run though; they're only neutralised, as what
+ * they submit is never drawn.
  */
 public class WallpaperDemoService extends WallpaperService {
 
@@ -119,12 +120,21 @@ public class WallpaperDemoService extends WallpaperService {
                     0xFFA465C5, 0xFF5661DE, 0xFF4AB498, 0xFFFA7B68, 0xFFFF6600,
                     0xFF669900, 0xFF66CCCC};
 
+    // Fraction of the application memory limit allowed for pre-rendered waveforms
+    private static final int MASK_CACHE_MEMORY_DIVISOR = 8;
+
+    private static final long TRANSITION_DURATION_NANOS = TimeUnit.MILLISECONDS.toNanos(600);
+
     @Inject
     SoundCloudClient mApi;
     @Inject
-    Picasso mPicasso;
-    @Inject
     WallpaperPreferences mWallpaperPreferences;
+    @Inject
+    WaveformSource mWaveformSource;
+    @Inject
+    WaveformStore mWaveformStore;
+    @Inject
+    FeedCursor mFeedCursor;
 
     @Override
     public Engine onCreateEngine() {
@@ -134,13 +144,18 @@ public class WallpaperDemoService extends WallpaperService {
     }
 
     // Dagger can't see this class, must DI into the Service instead
-    protected class WallpaperEngine extends Engine implements SharedPreferences.OnSharedPreferenceChangeListener {
+    protected class WallpaperEngine extends Engine implements SharedPreferences.OnSharedPreferenceChangeListener,
+            TrackProvider.OnTrackEvictedListener {
 
         private Subscription mProducerSubscription;
         private Subscription mConsumerSubscription;
         private TrackProvider mTrackProvider;
         private TrackDrawer mTrackDrawer;
+        private SurfaceRenderer mRenderer;
         private Track mCurrentTrack;
+        private int mCurrentColor;
+        private int mSurfaceWidth;
+        private int mSurfaceHeight;
 
         final private Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
 
@@ -156,9 +171,16 @@ public class WallpaperDemoService extends WallpaperService {
             @Override
             public void run() {
                 Log.i(TAG, "Executing Draw Runnable");
+                Track previousTrack = mCurrentTrack;
                 mCurrentTrack = mTrackProvider.getNextTrack();
-                mTrackDrawer.setColor(NumberUtils.getRandomElement(PRETTY_COLORS));
-                draw(mTrackDrawer, mCurrentTrack);
+                mCurrentColor = NumberUtils.getRandomElement(PRETTY_COLORS);
+                if (canTransition(previousTrack, mCurrentTrack)) {
+                    // Morph the waveform between tracks; the render thread paces the frames
+                    mRenderer.submit(Frame.transition(previousTrack, mCurrentTrack, mCurrentColor,
+                            System.nanoTime(), TRANSITION_DURATION_NANOS));
+                } else {
+                    draw();
+                }
             }
         };
 
@@ -191,8 +213,15 @@ public class WallpaperDemoService extends WallpaperService {
             super.onCreate(surfaceHolder);
             setTouchEventsEnabled(true);
 
-            mTrackProvider = new TrackProvider(getApplicationContext(), mApi, mPicasso);
-            mTrackDrawer = new TrackDrawer(10, 10);
+            mTrackProvider = new TrackProvider(new BroadcastConnectivitySource(getApplicationContext()), mApi, mWaveformSource, mWaveformStore, mFeedCursor,
+                    new ReloadPolicy(new DeviceConditions(getApplicationContext())));
+            mTrackDrawer = new TrackDrawer(10, 10, getResources().getDisplayMetrics().density);
+            mTrackDrawer.setRenderMode(TrackDrawer.RenderMode.PATH);
+            mCurrentColor = mTrackDrawer.getColor();
+            WaveformMaskCache maskCache = new WaveformMaskCache(DeviceUtils.getMemoryClassBytes(getApplicationContext()) / MASK_CACHE_MEMORY_DIVISOR);
+            // The drawer and mask cache now belong to the render thread
+            mRenderer = new SurfaceRenderer(surfaceHolder, mTrackDrawer, maskCache, getString(R.string.app_name));
+            mTrackProvider.setOnTrackEvictedListener(this);
             mWallpaperPreferences.addChangeListener(this);
 
             // Start drawing
@@ -225,21 +254,46 @@ public class WallpaperDemoService extends WallpaperService {
             mProducerSubscription = createProducerSubscription(reloadRate, prefetchCount, searchTerm);
         }
 
+        @Override
+        public void onTrackEvicted(Track track) {
+            // Frames and title layouts for tracks that have rotated out are dead weight
+            mRenderer.evict(track);
+        }
+
         @Override
         public void onDestroy() {
             Log.i(TAG, "onDestroy() - " + this);
             unsubscribeAll();
             mWallpaperPreferences.removeChangeListener(this);
+            mRenderer.quit();
             super.onDestroy();
         }
 
+        @Override
+        public void onSurfaceCreated(SurfaceHolder holder) {
+            super.onSurfaceCreated(holder);
+            mRenderer.onSurfaceCreated();
+        }
+
         @Override
         public void onSurfaceChanged(SurfaceHolder holder, int format,
                                      int width, int height) {
             super.onSurfaceChanged(holder, format, width, height);
             Log.v(TAG, "onSurfaceChanged() Current surface size: " + width + "," + height);
-            // Redraw canvas. Called on orientation change.
-            draw(mTrackDrawer, mCurrentTrack);
+            mSurfaceWidth = width;
+            mSurfaceHeight = height;
+            mRenderer.onSurfaceChanged(width, height);
+            // Only decode future waveforms at the amplitude resolution we can draw
+            mTrackProvider.setDecodeSize(mTrackDrawer.getDecodeSize(height));
+            // Redraw canvas, ending any transition. Called on orientation change.
+            draw();
+        }
+
+        @Override
+        public void onSurfaceDestroyed(SurfaceHolder holder) {
+            // Must not return until we've stopped drawing on it
+            mRenderer.onSurfaceDestroyed();
+            super.onSurfaceDestroyed(holder);
         }
 
         @Override
@@ -276,6 +330,11 @@ public class WallpaperDemoService extends WallpaperService {
                     startProducer();
                 }
             } else {
+                // Don't animate what can't be seen, skip to the end of any transition;
+                // if there's none, the renderer finds nothing has changed
+                if (mCurrentTrack != null) {
+                    draw();
+                }
                 Log.i(TAG, "Preparing API subscription for possible sleep");
                 mMainThreadHandler.postDelayed(mDeadlineRunnable, TimeUnit.MILLISECONDS.
                         convert(mWallpaperPreferences.getReloadRateInSeconds(), TimeUnit.SECONDS));
@@ -294,23 +353,20 @@ public class WallpaperDemoService extends WallpaperService {
         /*
          * Creates a periodic "consumer" Subscription to draw a track's waveform
          */
-        private Subscription createConsumerSubscription(int drawRate) {
-            return Schedulers.newThread().createWorker().schedulePeriodically(new Action0() {
+        private Subscription createConsumerSubscription(final int drawRate) {
+            // Start as soon as a track is available (not at the drawRate), without holding a thread waiting
+            return mTrackProvider.whenReady().flatMap(new Func1<Track, Observable<Long>>() {
                 @Override
-                public void call() {
-                    try {
-                        // Get Tracks as soon as they are available (not at the drawRate)
-                        Log.i(TAG, "Waiting until ready: " + Thread.currentThread().toString());
-                        mTrackProvider.waitUntilReady();
-                        mMainThreadHandler.post(mDoubleTapTimeout); // change track, invalidates double tap
-                        mMainThreadHandler.post(mDrawRunnable); // post draw event
-                    } catch (InterruptedException e) {
-                        // We've been interrupted when waiting for producer
-                        Log.d(TAG, "Consumer Thread interrupted");
-                        Thread.currentThread().interrupt();
-                    }
+                public Observable<Long> call(Track track) {
+                    return Observable.timer(0, drawRate, TimeUnit.SECONDS);
+                }
+            }).subscribe(new Action1<Long>() {
+                @Override
+                public void call(Long tick) {
+                    mMainThreadHandler.post(mDoubleTapTimeout); // change track, invalidates double tap
+                    mMainThreadHandler.post(mDrawRunnable); // post draw event
                 }
-            }, 0, drawRate, TimeUnit.SECONDS);
+            });
         }
 
         // Unsubscribes from all subscriptions.
@@ -333,35 +389,15 @@ public class WallpaperDemoService extends WallpaperService {
         }
 
         /*
-         * Draws the current track or a placeholder on a canvas
+         * Draws the current track or a placeholder
          */
-        public void draw(TrackDrawer drawer, Track track) {
-            final SurfaceHolder holder = getSurfaceHolder();
-            Canvas c = null;
-            try {
-                c = holder.lockCanvas();
-                if (c != null) {
-                    if (track != null) {
-                        drawer.drawOn(c, track);
-                    } else {
-                        drawPlaceholderOn(c);
-                    }
-                }
-            } finally {
-                if (c != null) {
-                    holder.unlockCanvasAndPost(c);
-                }
-            }
+        private void draw() {
+            mRenderer.submit(mCurrentTrack != null ? Frame.of(mCurrentTrack, mCurrentColor) : Frame.placeholder());
         }
 
-        // Placeholder screen implementation
-        private void drawPlaceholderOn(Canvas canvas) {
-            Paint textPaint = new Paint();
-            textPaint.setColor(Color.WHITE);
-            textPaint.setTextAlign(Paint.Align.CENTER);
-            textPaint.setTextSize(24);
-            canvas.drawColor(Color.BLACK);
-            canvas.drawText(getString(R.string.app_name), canvas.getWidth() / 2, canvas.getHeight() / 2, textPaint);
+        private boolean canTransition(Track from, Track to) {
+            return isVisible() && from != null && to != null && from != to
+                    && mSurfaceWidth > 0 && mSurfaceHeight > 0;
         }
 
         // Asks framework to open the provided URL via Intent
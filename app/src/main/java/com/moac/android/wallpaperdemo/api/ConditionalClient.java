@@ -0,0 +1,183 @@
+package com.moac.android.wallpaperdemo.api;
+
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import retrofit.client.Client;
+import retrofit.client.Header;
+import retrofit.client.Request;
+import retrofit.client.Response;
+import retrofit.mime.TypedInput;
+
+/**
+ * Makes repeated GETs conditional on the response having changed, using the ETag and
+ * Last-Modified validators of the previous response for the same URL.
+ * <p/>
+ * Only the first page of a paged request is revalidated. Later pages are fetched as the
+ * cursor walks past them, each at a URL that won't be asked for again until the walk
+ * wraps back to the start, so their validators would only ever go unused. Reusing the
+ * first page's for them, keyed without the offset, is no better: a collection wide
+ * validator would answer 304 for pages never seen.
+ * <p/>
+ * When the server answers 304 Not Modified the response is handed to Retrofit as a 204
+ * with no body, so no converter runs and the call's Observable emits null, meaning
+ * "unchanged since the last poll". Retrofit would otherwise treat the 304 as an error.
+ * <p/>
+ * Validators are kept in memory only, so the first request after the process starts
+ * always gets a body to fill an empty pool with; an HTTP cache on the underlying client
+ * can still revalidate that one against its disk copy. They're kept only once the body
+ * has been read to the end, so a poll that fails part way is fetched in full next time.
+ */
+public class ConditionalClient implements Client {
+
+    private static final String TAG = ConditionalClient.class.getSimpleName();
+
+    static final String ETAG = "ETag";
+    static final String LAST_MODIFIED = "Last-Modified";
+    static final String IF_NONE_MATCH = "If-None-Match";
+    static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    static final String OFFSET = "offset";
+
+    private final Client mDelegate;
+    private final Map<String, Validators> mValidators = new ConcurrentHashMap<String, Validators>();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+
+    public ConditionalClient(Client delegate) {
+        mDelegate = delegate;
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        final String url = request.getUrl();
+        if (!"GET".equals(request.getMethod()) || !isFirstPage(url)) {
+            return mDelegate.execute(request);
+        }
+        Validators validators = mValidators.get(url);
+        Response response = mDelegate.execute(validators == null ? request : validators.addTo(request));
+
+        if (response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED && validators != null) {
+            Log.i(TAG, "execute() - not modified: " + url);
+            mNotModifiedCount.incrementAndGet();
+            return new Response(response.getUrl(), HttpURLConnection.HTTP_NO_CONTENT, response.getReason(),
+                    response.getHeaders(), null);
+        }
+
+        mValidators.remove(url);
+        Validators received = Validators.from(response);
+        if (received == null || response.getStatus() != HttpURLConnection.HTTP_OK || response.getBody() == null) {
+            return response;
+        }
+        return new Response(response.getUrl(), response.getStatus(), response.getReason(), response.getHeaders(),
+                new CommitOnEndTypedInput(response.getBody(), url, received));
+    }
+
+    /**
+     * Counts requests answered with 304 Not Modified
+     */
+    public int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    // No offset, or offset 0
+    static boolean isFirstPage(String url) {
+        int query = url.indexOf('?');
+        if (query == -1) {
+            return true;
+        }
+        for (String parameter : url.substring(query + 1).split("&")) {
+            if (parameter.startsWith(OFFSET + "=")) {
+                String value = parameter.substring(OFFSET.length() + 1);
+                return value.isEmpty() || value.matches("0+");
+            }
+        }
+        return true;
+    }
+
+    private static class Validators {
+        final String eTag;
+        final String lastModified;
+
+        Validators(String eTag, String lastModified) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        static Validators from(Response response) {
+            String eTag = null;
+            String lastModified = null;
+            for (Header header : response.getHeaders()) {
+                if (ETAG.equalsIgnoreCase(header.getName())) {
+                    eTag = header.getValue();
+                } else if (LAST_MODIFIED.equalsIgnoreCase(header.getName())) {
+                    lastModified = header.getValue();
+                }
+            }
+            return eTag == null && lastModified == null ? null : new Validators(eTag, lastModified);
+        }
+
+        Request addTo(Request request) {
+            List<Header> headers = new ArrayList<Header>(request.getHeaders());
+            if (eTag != null) {
+                headers.add(new Header(IF_NONE_MATCH, eTag));
+            }
+            if (lastModified != null) {
+                headers.add(new Header(IF_MODIFIED_SINCE, lastModified));
+            }
+            return new Request(request.getMethod(), request.getUrl(), headers, request.getBody());
+        }
+    }
+
+    // Keeps the validators once the body has been read to the end
+    private class CommitOnEndTypedInput implements TypedInput {
+        private final TypedInput mBody;
+        private final String mUrl;
+        private final Validators mReceived;
+
+        CommitOnEndTypedInput(TypedInput body, String url, Validators received) {
+            mBody = body;
+            mUrl = url;
+            mReceived = received;
+        }
+
+        @Override
+        public String mimeType() {
+            return mBody.mimeType();
+        }
+
+        @Override
+        public long length() {
+            return mBody.length();
+        }
+
+        @Override
+        public InputStream in() throws IOException {
+            return new FilterInputStream(mBody.in()) {
+                @Override
+                public int read() throws IOException {
+                    return commitAtEnd(super.read());
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    return commitAtEnd(super.read(buffer, offset, count));
+                }
+            };
+        }
+
+        private int commitAtEnd(int read) {
+            if (read == -1) {
+                mValidators.put(mUrl, mReceived);
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.moac.android.wallpaperdemo.api;
+
+import android.util.Log;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.gfx.DecodeSize;
+
+import java.io.IOException;
+
+/**
+ * Tries the primary source, falling back to the other if it fails
+ */
+public class FallbackWaveformSource implements WaveformSource {
+
+    private static final String TAG = FallbackWaveformSource.class.getSimpleName();
+
+    private final WaveformSource mPrimary;
+    private final WaveformSource mFallback;
+
+    public FallbackWaveformSource(WaveformSource primary, WaveformSource fallback) {
+        mPrimary = primary;
+        mFallback = fallback;
+    }
+
+    @Override
+    public float[] load(Track track, DecodeSize decodeSize) throws IOException {
+        try {
+            return mPrimary.load(track, decodeSize);
+        } catch (IOException e) {
+            Log.w(TAG, "Primary waveform source failed for track: " + track.getTitle() + ", falling back", e);
+            return mFallback.load(track, decodeSize);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.moac.android.wallpaperdemo.api;
+
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.gfx.DecodeSize;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.moac.android.wallpaperdemo.util.Streams.closeQuietly;
+
+/**
+ * Fetches the waveform's samples as JSON, served alongside the PNG, e.g. -
+ * <p/>
+ * https://w1.sndcdn.com/sPNv4LFoR9b7_m.png => https://wis.sndcdn.com/sPNv4LFoR9b7_m.json
+ * <p/>
+ * The response is of the form {"width":1800,"height":140,"samples":[...]} and is parsed
+ * as a stream, so no image is decoded. If a plausible width precedes the samples, the only
+ * allocation of note is the final sample array; otherwise they're read into a growable
+ * buffer, then trimmed. The samples are already at a fixed resolution, so the decode size
+ * is ignored.
+ */
+public class JsonWaveformSource implements WaveformSource {
+
+    private static final String TAG = JsonWaveformSource.class.getSimpleName();
+
+    // Used only if the width doesn't precede the samples, or is implausible
+    private static final int INITIAL_CAPACITY = 2048;
+    // The width of the source waveforms; a larger one isn't trusted up front
+    static final int MAX_PRESIZED_WIDTH = 1800;
+
+    private final OkHttpClient mClient;
+    private final String mBaseUrl;
+
+    /**
+     * @param baseUrl scheme and host serving the JSON waveforms, e.g. https://wis.sndcdn.com
+     */
+    public JsonWaveformSource(OkHttpClient client, String baseUrl) {
+        mClient = client;
+        mBaseUrl = baseUrl;
+    }
+
+    @Override
+    public float[] load(Track track, DecodeSize decodeSize) throws IOException {
+        String url = toJsonUrl(track.getWaveformUrl());
+        Log.i(TAG, "Downloading waveform samples for track: " + track.getTitle() + " from: " + url);
+
+        Response response = mClient.newCall(new Request.Builder().url(url).build()).execute();
+        if (!response.isSuccessful()) {
+            closeQuietly(response.body());
+            throw new IOException("Unexpected response code: " + response.code() + " for: " + url);
+        }
+        JsonReader reader = new JsonReader(response.body().charStream());
+        try {
+            return parse(reader);
+        } catch (IllegalStateException e) {
+            // JsonReader's complaint about unexpected tokens
+            throw new IOException("Malformed waveform JSON from: " + url, e);
+        } catch (NumberFormatException e) {
+            // A string where a number was expected
+            throw new IOException("Malformed waveform JSON from: " + url, e);
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    // The JSON resource has the same name as the PNG
+    String toJsonUrl(String waveformUrl) throws IOException {
+        if (waveformUrl == null)
+            throw new IOException("Track has no waveform URL");
+        int nameStart = waveformUrl.lastIndexOf('/') + 1;
+        int extension = waveformUrl.lastIndexOf('.');
+        String name = extension > nameStart ? waveformUrl.substring(nameStart, extension) : waveformUrl.substring(nameStart);
+        if (name.length() == 0)
+            throw new IOException("Unexpected waveform URL: " + waveformUrl);
+        return mBaseUrl + "/" + name + ".json";
+    }
+
+    static float[] parse(JsonReader reader) throws IOException {
+        float[] samples = null;
+        int count = 0;
+        int height = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("width".equals(name)) {
+                int width = reader.nextInt();
+                if (samples == null && width > 0 && width <= MAX_PRESIZED_WIDTH) {
+                    samples = new float[width];
+                }
+            } else if ("height".equals(name)) {
+                height = reader.nextInt();
+            } else if ("samples".equals(name)) {
+                if (samples == null) {
+                    samples = new float[INITIAL_CAPACITY];
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (count == samples.length) {
+                        samples = Arrays.copyOf(samples, samples.length * 2);
+                    }
+                    samples[count++] = (float) reader.nextDouble();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (reader.peek() != JsonToken.END_DOCUMENT)
+            throw new IOException("Unexpected content after waveform");
+        if (height <= 0 || count == 0)
+            throw new IOException("Waveform JSON missing height or samples");
+
+        if (count != samples.length) {
+            samples = Arrays.copyOf(samples, count);
+        }
+        // Samples are column heights, normalize in place
+        for (int i = 0; i < count; i++) {
+            samples[i] = Math.max(0f, Math.min(1f, samples[i] / height));
+        }
+        return samples;
+    }
+}
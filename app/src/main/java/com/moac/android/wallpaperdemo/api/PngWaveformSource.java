@@ -0,0 +1,45 @@
+package com.moac.android.wallpaperdemo.api;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.gfx.BitmapProcessor;
+import com.moac.android.wallpaperdemo.gfx.DecodeSize;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+
+import java.io.IOException;
+
+/**
+ * Downloads the track's waveform PNG and extracts the amplitudes from its pixels
+ */
+public class PngWaveformSource implements WaveformSource {
+
+    private static final String TAG = PngWaveformSource.class.getSimpleName();
+
+    private final Picasso mPicasso;
+    private final BitmapProcessor mProcessor;
+
+    public PngWaveformSource(Picasso picasso, BitmapProcessor processor) {
+        mPicasso = picasso;
+        mProcessor = processor;
+    }
+
+    /**
+     * @param decodeSize if not null, the waveform is decoded as ALPHA_8 and scaled to this
+     *                   size, rather than as full resolution ARGB_8888.
+     */
+    @Override
+    public float[] load(Track track, DecodeSize decodeSize) throws IOException {
+        Log.i(TAG, "Downloading waveform image for track: " + track.getTitle());
+        RequestCreator request = mPicasso.load(track.getWaveformUrl());
+        if (decodeSize != null) {
+            // Only the alpha channel is used, and far fewer rows of it than the PNG has
+            request.config(Bitmap.Config.ALPHA_8)
+                    .resize(decodeSize.getWidth(), decodeSize.getHeight());
+        }
+        Bitmap bitmap = request.get();
+        return mProcessor.transform(bitmap);
+    }
+}
@@ -1,15 +1,24 @@
 package com.moac.android.wallpaperdemo.api;
 
-import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.observable.TrackObservables;
 
+import retrofit.client.Response;
 import retrofit.http.GET;
 import retrofit.http.Query;
-import rx.Observable;
-
-import java.util.List;
+import retrofit.http.Streaming;
 
 public interface SoundCloudClient {
+    /**
+     * Requests limit tracks, starting offset results in. Returns as soon as the response starts
+     * to arrive, leaving its body to be read, e.g. by {@link TrackObservables#fromResponse(Response)}.
+     * Fewer than limit tracks are returned once the results run out. Blocking.
+     * <p/>
+     * The body is null when the first page is unchanged since the last request for it, if made
+     * through a {@link ConditionalClient}.
+     */
     @GET("/tracks")
-    public Observable<List<Track>> getTracks(@Query("q") String search,
-                                 @Query("limit") long limit);
+    @Streaming
+    public Response streamTracks(@Query("q") String search,
+                                 @Query("limit") long limit,
+                                 @Query("offset") long offset);
 }
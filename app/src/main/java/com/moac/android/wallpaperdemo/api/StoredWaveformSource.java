@@ -0,0 +1,58 @@
+package com.moac.android.wallpaperdemo.api;
+
+import android.util.Log;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.api.model.Waveform;
+import com.moac.android.wallpaperdemo.gfx.DecodeSize;
+import com.moac.android.wallpaperdemo.store.WaveformStore;
+
+import java.io.IOException;
+
+/**
+ * Returns waveforms from the store if it has them, otherwise loads them from the
+ * source and stores them. A failing store is logged and bypassed, never fatal.
+ * <p/>
+ * Stored waveforms are returned at whatever size they were first decoded at.
+ */
+public class StoredWaveformSource implements WaveformSource {
+
+    private static final String TAG = StoredWaveformSource.class.getSimpleName();
+
+    private final WaveformStore mStore;
+    private final WaveformSource mSource;
+
+    public StoredWaveformSource(WaveformStore store, WaveformSource source) {
+        mStore = store;
+        mSource = source;
+    }
+
+    @Override
+    public float[] load(Track track, DecodeSize decodeSize) throws IOException {
+        Track stored = null;
+        try {
+            stored = mStore.get(track.getId());
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read stored waveform for track: " + track.getTitle(), e);
+        }
+        if (stored != null) {
+            return toAmplitudes(stored.getWaveform());
+        }
+
+        float[] amplitudes = mSource.load(track, decodeSize);
+        try {
+            mStore.put(track, Waveform.quantize(amplitudes));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to store waveform for track: " + track.getTitle(), e);
+        }
+        return amplitudes;
+    }
+
+    private static float[] toAmplitudes(Waveform waveform) {
+        float[] amplitudes = new float[waveform.size()];
+        for (int i = 0; i < amplitudes.length; i++) {
+            amplitudes[i] = waveform.get(i);
+        }
+        return amplitudes;
+    }
+}
@@ -0,0 +1,16 @@
+package com.moac.android.wallpaperdemo.api;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.gfx.DecodeSize;
+
+import java.io.IOException;
+
+public interface WaveformSource {
+
+    /**
+     * Fetch the normalized amplitudes of the track's waveform
+     *
+     * @param decodeSize the resolution that will be drawn, a hint which sources may ignore.
+     */
+    public float[] load(Track track, DecodeSize decodeSize) throws IOException;
+}
@@ -12,7 +12,25 @@ public class Track {
     @SerializedName("permalink_url") private String permalinkUrl;
 
     // Calculated from Bitmap data, not from API response
-    @Expose(deserialize = false) protected float[] waveformData;
+    @Expose(deserialize = false) protected Waveform waveform;
+    @Expose(deserialize = false) protected WaveformPyramid waveformPyramid;
+
+    public Track() {}
+
+    /**
+     * The minimum needed to show a track, e.g. when restored from storage
+     */
+    public Track(long id, String title, String permalinkUrl) {
+        this.id = id;
+        this.title = title;
+        this.permalinkUrl = permalinkUrl;
+    }
+
+    Track(long id, String title, User user, String waveformUrl, String permalinkUrl) {
+        this(id, title, permalinkUrl);
+        this.user = user;
+        this.waveformUrl = waveformUrl;
+    }
 
     public long getId() { return id; }
 
@@ -24,9 +42,15 @@ public class Track {
 
     public String getPermalinkUrl() { return permalinkUrl; }
 
-    public float[] getWaveformData() { return waveformData; }
+    public Waveform getWaveform() { return waveform; }
+
+    public void setWaveform(Waveform waveform) {
+        this.waveform = waveform;
+    }
+
+    public WaveformPyramid getWaveformPyramid() { return waveformPyramid; }
 
-    public void setWaveformData(float[] waveformData) {
-        this.waveformData = waveformData;
+    public void setWaveformPyramid(WaveformPyramid waveformPyramid) {
+        this.waveformPyramid = waveformPyramid;
     }
 }
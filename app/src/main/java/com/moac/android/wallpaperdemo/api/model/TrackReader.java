@@ -0,0 +1,76 @@
+package com.moac.android.wallpaperdemo.api.model;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Reads tracks from a stream of API JSON one at a time, keeping only the fields the model
+ * has; everything else is skipped over by the reader without being built into objects.
+ */
+public class TrackReader {
+
+    private TrackReader() {}
+
+    /**
+     * Reads the track object at the reader's position
+     */
+    public static Track readTrack(JsonReader reader) throws IOException {
+        long id = 0;
+        String title = null;
+        User user = null;
+        String waveformUrl = null;
+        String permalinkUrl = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("id".equals(name)) {
+                id = reader.nextLong();
+            } else if ("title".equals(name)) {
+                title = reader.nextString();
+            } else if ("user".equals(name)) {
+                user = readUser(reader);
+            } else if ("waveform_url".equals(name)) {
+                waveformUrl = reader.nextString();
+            } else if ("permalink_url".equals(name)) {
+                permalinkUrl = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new Track(id, title, user, waveformUrl, permalinkUrl);
+    }
+
+    /**
+     * Reads the user object at the reader's position
+     */
+    public static User readUser(JsonReader reader) throws IOException {
+        String id = null;
+        String username = null;
+        String uri = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("id".equals(name)) {
+                // A number in the API, a string in the model
+                id = reader.nextString();
+            } else if ("username".equals(name)) {
+                username = reader.nextString();
+            } else if ("uri".equals(name)) {
+                uri = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new User(id, username, uri);
+    }
+}
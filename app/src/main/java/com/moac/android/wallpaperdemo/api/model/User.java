@@ -8,6 +8,14 @@ public class User {
     @SerializedName("username") protected String username;
     @SerializedName("uri") protected String uri;
 
+    public User() {}
+
+    User(String id, String username, String uri) {
+        this.id = id;
+        this.username = username;
+        this.uri = uri;
+    }
+
     public String getId() { return id; }
 
     public String getUsername() { return username; }
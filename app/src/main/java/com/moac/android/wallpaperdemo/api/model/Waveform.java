@@ -0,0 +1,59 @@
+package com.moac.android.wallpaperdemo.api.model;
+
+/**
+ * Normalized waveform amplitudes quantized to 8 bits, a quarter of the size of the
+ * float[] they are created from. 256 levels is plenty for a column a few hundred
+ * pixels tall.
+ */
+public class Waveform {
+
+    private static final float LEVELS = 255f;
+
+    private final byte[] amplitudes;
+
+    private Waveform(byte[] amplitudes) {
+        this.amplitudes = amplitudes;
+    }
+
+    /**
+     * @param normalizedAmplitudes values in the range [0, 1], others are clamped.
+     */
+    public static Waveform quantize(float[] normalizedAmplitudes) {
+        byte[] amplitudes = new byte[normalizedAmplitudes.length];
+        for (int i = 0; i < normalizedAmplitudes.length; i++) {
+            float clamped = Math.max(0f, Math.min(1f, normalizedAmplitudes[i]));
+            amplitudes[i] = (byte) Math.round(clamped * LEVELS);
+        }
+        return new Waveform(amplitudes);
+    }
+
+    /**
+     * Recreates a waveform from the values returned by {@link #toQuantized()}; the array isn't copied
+     */
+    public static Waveform fromQuantized(byte[] amplitudes) {
+        return new Waveform(amplitudes);
+    }
+
+    /**
+     * A copy of the quantized values, e.g. for storage
+     */
+    public byte[] toQuantized() {
+        byte[] copy = new byte[amplitudes.length];
+        System.arraycopy(amplitudes, 0, copy, 0, amplitudes.length);
+        return copy;
+    }
+
+    public int size() { return amplitudes.length; }
+
+    public float get(int index) { return toAmplitude(getQuantized(index)); }
+
+    // The raw quantized value, in the range [0, 255]
+    int getQuantized(int index) { return amplitudes[index] & 0xFF; }
+
+    static float toAmplitude(int quantized) { return quantized / LEVELS; }
+
+    /**
+     * The number of bytes used to hold the amplitudes
+     */
+    public int getSizeInBytes() { return amplitudes.length; }
+}
@@ -0,0 +1,149 @@
+package com.moac.android.wallpaperdemo.api.model;
+
+/**
+ * A min/max/mean pyramid over a {@link Waveform}, where each level halves the resolution
+ * of the one below it; level 0 is the waveform itself.
+ * <p/>
+ * A drawer with a given number of columns picks the coarsest level that still has at
+ * least one entry per column, then aggregates the one or two entries under each column.
+ * Unlike point sampling, peaks survive at every width, and the cost is O(columns)
+ * regardless of the waveform's resolution.
+ */
+public class WaveformPyramid {
+
+    private final Waveform waveform;
+    // Index 0 is unused; level 0 is read straight from the waveform.
+    private final byte[][] mins;
+    private final byte[][] maxs;
+    private final byte[][] means;
+
+    private WaveformPyramid(Waveform waveform, byte[][] mins, byte[][] maxs, byte[][] means) {
+        this.waveform = waveform;
+        this.mins = mins;
+        this.maxs = maxs;
+        this.means = means;
+    }
+
+    public static WaveformPyramid build(Waveform waveform) {
+        int levels = 1;
+        for (int size = waveform.size(); size > 1; size = (size + 1) / 2) {
+            levels++;
+        }
+
+        byte[][] mins = new byte[levels][];
+        byte[][] maxs = new byte[levels][];
+        byte[][] means = new byte[levels][];
+
+        // Running sums and counts so that means are exact rather than averages of averages
+        int size = waveform.size();
+        int[] sums = new int[size];
+        int[] counts = new int[size];
+        for (int i = 0; i < size; i++) {
+            sums[i] = waveform.getQuantized(i);
+            counts[i] = 1;
+        }
+
+        for (int level = 1; level < levels; level++) {
+            int parentSize = size;
+            size = (parentSize + 1) / 2;
+            mins[level] = new byte[size];
+            maxs[level] = new byte[size];
+            means[level] = new byte[size];
+            for (int i = 0; i < size; i++) {
+                int left = i * 2;
+                int right = Math.min(left + 1, parentSize - 1);
+                mins[level][i] = (byte) Math.min(min(waveform, mins, level - 1, left), min(waveform, mins, level - 1, right));
+                maxs[level][i] = (byte) Math.max(max(waveform, maxs, level - 1, left), max(waveform, maxs, level - 1, right));
+                int sum = sums[left] + (right != left ? sums[right] : 0);
+                int count = counts[left] + (right != left ? counts[right] : 0);
+                means[level][i] = (byte) Math.round((float) sum / count);
+                sums[i] = sum;
+                counts[i] = count;
+            }
+        }
+        return new WaveformPyramid(waveform, mins, maxs, means);
+    }
+
+    public Waveform getWaveform() { return waveform; }
+
+    public int getLevelCount() { return mins.length; }
+
+    public int getLevelSize(int level) {
+        return level == 0 ? waveform.size() : mins[level].length;
+    }
+
+    /**
+     * The coarsest level with at least as many entries as columns, or level 0 if
+     * there are more columns than datapoints.
+     */
+    public int selectLevel(int columns) {
+        int level = 0;
+        while (level + 1 < getLevelCount() && getLevelSize(level + 1) >= columns) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * The peak amplitude under a column, when the level is divided into the given number of columns.
+     */
+    public float getMax(int level, int column, int columns) {
+        int start = start(level, column, columns);
+        int end = end(level, column, columns, start);
+        int max = 0;
+        for (int i = start; i < end; i++) {
+            max = Math.max(max, max(waveform, maxs, level, i));
+        }
+        return Waveform.toAmplitude(max);
+    }
+
+    public float getMin(int level, int column, int columns) {
+        int start = start(level, column, columns);
+        int end = end(level, column, columns, start);
+        int min = 255;
+        for (int i = start; i < end; i++) {
+            min = Math.min(min, min(waveform, mins, level, i));
+        }
+        return Waveform.toAmplitude(min);
+    }
+
+    // Note: entries at coarser levels may cover fewer datapoints at the end of the waveform.
+    public float getMean(int level, int column, int columns) {
+        int start = start(level, column, columns);
+        int end = end(level, column, columns, start);
+        int sum = 0;
+        for (int i = start; i < end; i++) {
+            sum += level == 0 ? waveform.getQuantized(i) : means[level][i] & 0xFF;
+        }
+        return Waveform.toAmplitude(Math.round((float) sum / (end - start)));
+    }
+
+    /**
+     * The number of bytes used by the pyramid, excluding the waveform itself
+     */
+    public int getSizeInBytes() {
+        int bytes = 0;
+        for (int level = 1; level < getLevelCount(); level++) {
+            bytes += mins[level].length + maxs[level].length + means[level].length;
+        }
+        return bytes;
+    }
+
+    private int start(int level, int column, int columns) {
+        int size = getLevelSize(level);
+        return Math.min((int) ((long) column * size / columns), size - 1);
+    }
+
+    private int end(int level, int column, int columns, int start) {
+        int size = getLevelSize(level);
+        return Math.max(start + 1, Math.min((int) ((long) (column + 1) * size / columns), size));
+    }
+
+    private static int min(Waveform waveform, byte[][] mins, int level, int index) {
+        return level == 0 ? waveform.getQuantized(index) : mins[level][index] & 0xFF;
+    }
+
+    private static int max(Waveform waveform, byte[][] maxs, int level, int index) {
+        return level == 0 ? waveform.getQuantized(index) : maxs[level][index] & 0xFF;
+    }
+}
@@ -0,0 +1,93 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+import com.moac.android.wallpaperdemo.BuildConfig;
+
+/**
+ * Finds each column's amplitude by binary searching for the opaque/transparent boundary
+ * in the top half of the waveform image, rather than scanning down from the top.
+ * <p/>
+ * This relies on each column being opaque above the boundary and transparent below it,
+ * down to the centre line. A handful of probes either side of the boundary check that
+ * assumption holds, otherwise the column falls back to a linear scan, so the output
+ * matches {@link WaveformProcessor} for well-formed waveforms (opaque above the boundary,
+ * transparent below). The probes are a heuristic though: a stray pixel between them goes
+ * unnoticed and gives a different amplitude. Proving there is none means reading every row
+ * above the boundary, which is the linear scan, so this isn't the default.
+ */
+public class BinarySearchWaveformProcessor implements BitmapProcessor {
+
+    private static final String TAG = BinarySearchWaveformProcessor.class.getSimpleName();
+    private static final boolean DEBUG = BuildConfig.DEBUG && false;
+
+    public float[] transform(Bitmap bitmap) {
+        Log.i(TAG, "transform() - width: " + bitmap.getWidth());
+        final int width = bitmap.getWidth();
+        final float centreLine = (float) bitmap.getHeight() / 2f;
+        final int rows = (int) Math.ceil(centreLine);
+        float[] normalizedAmplitude = new float[width];
+
+        for(int x = 0; x < width; x++) {
+            int boundary = searchBoundary(bitmap, x, rows);
+            if(!isMonotonic(bitmap, x, rows, boundary)) {
+                if(DEBUG)
+                    Log.v(TAG, "transform() - column not monotonic, scanning: " + x);
+                boundary = scanBoundary(bitmap, x, rows);
+            }
+            // No transparent pixel above the centre line means no amplitude
+            normalizedAmplitude[x] = boundary < rows ? (centreLine - boundary) / centreLine : 0f;
+        }
+        return normalizedAmplitude;
+    }
+
+    // Returns the first transparent row in the column, or rows if there is none.
+    private static int searchBoundary(Bitmap bitmap, int x, int rows) {
+        int low = 0;
+        int high = rows;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(isTransparent(bitmap, x, mid)) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    // Linear scan, as per WaveformProcessor
+    private static int scanBoundary(Bitmap bitmap, int x, int rows) {
+        for(int y = 0; y < rows; y++) {
+            if(isTransparent(bitmap, x, y)) {
+                return y;
+            }
+        }
+        return rows;
+    }
+
+    // Cheap sanity check: probe the rows at, between and either side of the boundary
+    private static boolean isMonotonic(Bitmap bitmap, int x, int rows, int boundary) {
+        if(boundary > 0) {
+            if(isTransparent(bitmap, x, 0)
+                    || isTransparent(bitmap, x, boundary / 2)
+                    || isTransparent(bitmap, x, boundary - 1)) {
+                return false;
+            }
+        }
+        if(boundary < rows) {
+            if(!isTransparent(bitmap, x, boundary)
+                    || !isTransparent(bitmap, x, (boundary + rows - 1) >>> 1)
+                    || !isTransparent(bitmap, x, rows - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isTransparent(Bitmap bitmap, int x, int y) {
+        return Color.alpha(bitmap.getPixel(x, y)) == 0;
+    }
+}
@@ -0,0 +1,132 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import java.util.Arrays;
+
+/**
+ * Draws onto a Canvas. Reusable; set the canvas before each frame.
+ */
+public class CanvasDrawingBackend implements DrawingBackend {
+
+    private final Paint mFillPaint;
+    private final Paint mShapePaint;
+    private final Paint mTextPaint;
+    private final Paint mMaskPaint;
+    private final RectF mOvalRect = new RectF(); // reused for each oval
+    private Canvas mCanvas;
+
+    // The columns as a single path, and what it was built from
+    private final Path mColumnsPath = new Path();
+    private float[] mPathLefts;
+    private float[] mPathLengths;
+    private float mPathColumnWidth;
+    private float mPathCentreY;
+
+    public CanvasDrawingBackend() {
+        mFillPaint = new Paint();
+        mShapePaint = new Paint();
+        mShapePaint.setAntiAlias(true);
+        mTextPaint = new Paint();
+        mTextPaint.setTextAlign(Paint.Align.CENTER);
+        mTextPaint.setAntiAlias(true);
+        mMaskPaint = new Paint();
+    }
+
+    public CanvasDrawingBackend setCanvas(Canvas canvas) {
+        mCanvas = canvas;
+        return this;
+    }
+
+    @Override
+    public int getWidth() {
+        return mCanvas.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mCanvas.getHeight();
+    }
+
+    @Override
+    public void fill(int color) {
+        mFillPaint.setColor(color);
+        mCanvas.drawPaint(mFillPaint);
+    }
+
+    @Override
+    public void drawOval(float left, float top, float right, float bottom, int color) {
+        mShapePaint.setColor(color);
+        mOvalRect.set(left, top, right, bottom);
+        mCanvas.drawOval(mOvalRect, mShapePaint);
+    }
+
+    @Override
+    public void drawCircle(float centreX, float centreY, float radius, int color) {
+        mShapePaint.setColor(color);
+        mCanvas.drawCircle(centreX, centreY, radius, mShapePaint);
+    }
+
+    @Override
+    public void drawText(String text, float x, float y, float textSize, int color) {
+        mTextPaint.setColor(color);
+        mTextPaint.setTextSize(textSize);
+        mCanvas.drawText(text, x, y, mTextPaint);
+    }
+
+    /**
+     * The path is rebuilt only when the columns differ from the last drawn
+     */
+    @Override
+    public void drawColumns(float[] lefts, float[] lengths, float columnWidth, float centreY, int color) {
+        if (!Arrays.equals(lefts, mPathLefts) || !Arrays.equals(lengths, mPathLengths)
+                || columnWidth != mPathColumnWidth || centreY != mPathCentreY) {
+            buildColumnsPath(lefts, lengths, columnWidth, centreY);
+        }
+        mShapePaint.setColor(color);
+        mCanvas.drawPath(mColumnsPath, mShapePaint);
+    }
+
+    /**
+     * Draws an ALPHA_8 mask the size of the canvas, tinted with the colour
+     */
+    public void drawMask(Bitmap mask, int color) {
+        mMaskPaint.setColor(color);
+        mCanvas.drawBitmap(mask, 0, 0, mMaskPaint);
+    }
+
+    @Override
+    public float measureText(String text, float textSize) {
+        mTextPaint.setTextSize(textSize);
+        return mTextPaint.measureText(text);
+    }
+
+    private void buildColumnsPath(float[] lefts, float[] lengths, float columnWidth, float centreY) {
+        final float radius = columnWidth / 2f;
+        mColumnsPath.rewind();
+        for (int col = 0; col < lengths.length; col++) {
+            float top = centreY - lengths[col] / 2f;
+            float bottom = top + lengths[col];
+            float centreX = lefts[col] + radius;
+            mOvalRect.set(lefts[col], top, lefts[col] + columnWidth, bottom);
+            mColumnsPath.addOval(mOvalRect, Path.Direction.CW);
+            mColumnsPath.addCircle(centreX, top - columnWidth, radius, Path.Direction.CW);
+            mColumnsPath.addCircle(centreX, bottom + columnWidth, radius, Path.Direction.CW);
+        }
+        mPathLefts = copyOf(lefts, mPathLefts);
+        mPathLengths = copyOf(lengths, mPathLengths);
+        mPathColumnWidth = columnWidth;
+        mPathCentreY = centreY;
+    }
+
+    // Copies into reuse if it's the same length, so each frame of a transition allocates nothing
+    private static float[] copyOf(float[] values, float[] reuse) {
+        float[] copy = reuse != null && reuse.length == values.length ? reuse : new float[values.length];
+        System.arraycopy(values, 0, copy, 0, values.length);
+        return copy;
+    }
+}
@@ -0,0 +1,44 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+/**
+ * Vsync paced frames, must be created on a Looper thread.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class ChoreographerFrameScheduler implements FrameScheduler, Choreographer.FrameCallback {
+
+    private final Choreographer mChoreographer;
+    private Callback mCallback;
+
+    public ChoreographerFrameScheduler() {
+        mChoreographer = Choreographer.getInstance();
+    }
+
+    @Override
+    public void scheduleFrame(Callback callback) {
+        if (mCallback == null) {
+            mCallback = callback;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void cancelFrame() {
+        if (mCallback != null) {
+            mChoreographer.removeFrameCallback(this);
+            mCallback = null;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        Callback callback = mCallback;
+        mCallback = null;
+        if (callback != null) {
+            callback.doFrame(frameTimeNanos);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+/**
+ * The resolution at which to decode a waveform image, from {@link TrackDrawer}. Reduced
+ * in height to what it will actually draw for the current surface.
+ */
+public class DecodeSize {
+
+    private final int mWidth;
+    private final int mHeight;
+
+    public DecodeSize(int width, int height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Decode size must be positive: " + width + "x" + height);
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public int getWidth() { return mWidth; }
+
+    public int getHeight() { return mHeight; }
+
+    @Override
+    public String toString() {
+        return mWidth + "x" + mHeight;
+    }
+}
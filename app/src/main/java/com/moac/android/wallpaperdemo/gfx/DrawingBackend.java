@@ -0,0 +1,42 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+/**
+ * The drawing primitives used by {@link TrackDrawer}, so that what it draws can be
+ * recorded and measured without a Canvas. All shapes are filled, and anti-aliased
+ * apart from the background fill.
+ */
+public interface DrawingBackend {
+
+    public int getWidth();
+
+    public int getHeight();
+
+    /**
+     * Fills the whole drawing area
+     */
+    public void fill(int color);
+
+    public void drawOval(float left, float top, float right, float bottom, int color);
+
+    public void drawCircle(float centreX, float centreY, float radius, int color);
+
+    /**
+     * Draws a single line of text, horizontally centred on x, with its baseline at y
+     */
+    public void drawText(String text, float x, float y, float textSize, int color);
+
+    /**
+     * Draws every column of a waveform as one shape: each a vertical oval, centred on
+     * centreY, with a circular tail a column width beyond each end. The arrays may be
+     * reused with different contents for the next call.
+     *
+     * @param lefts   the left edge of each column
+     * @param lengths the length of each column, excluding its tails
+     */
+    public void drawColumns(float[] lefts, float[] lengths, float columnWidth, float centreY, int color);
+
+    /**
+     * The width of the text as {@link #drawText} would draw it
+     */
+    public float measureText(String text, float textSize);
+}
@@ -0,0 +1,76 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+
+/**
+ * An immutable description of what to draw, handed to a {@link SurfaceRenderer}.
+ */
+public final class Frame {
+
+    private final Track mTrack;
+    private final Track mFromTrack;
+    private final int mColor;
+    private final long mStartTimeNanos;
+    private final long mDurationNanos;
+
+    private Frame(Track track, Track fromTrack, int color, long startTimeNanos, long durationNanos) {
+        mTrack = track;
+        mFromTrack = fromTrack;
+        mColor = color;
+        mStartTimeNanos = startTimeNanos;
+        mDurationNanos = durationNanos;
+    }
+
+    /**
+     * Nothing to show yet
+     */
+    public static Frame placeholder() {
+        return new Frame(null, null, 0, 0, 0);
+    }
+
+    /**
+     * The track's waveform and title on the given background colour
+     */
+    public static Frame of(Track track, int color) {
+        return new Frame(track, null, color, 0, 0);
+    }
+
+    /**
+     * Morphing the waveform from one track to another, see {@link TrackDrawer#drawTransitionOn}.
+     * Submitted once; the renderer draws each frame of it, working out the progress from
+     * the frame's time.
+     *
+     * @param startTimeNanos when the transition starts, in the System.nanoTime() timebase
+     */
+    public static Frame transition(Track from, Track to, int color, long startTimeNanos, long durationNanos) {
+        return new Frame(to, from, color, startTimeNanos, durationNanos);
+    }
+
+    public Track getTrack() {
+        return mTrack;
+    }
+
+    public Track getFromTrack() {
+        return mFromTrack;
+    }
+
+    public int getColor() {
+        return mColor;
+    }
+
+    public long getStartTimeNanos() {
+        return mStartTimeNanos;
+    }
+
+    public long getDurationNanos() {
+        return mDurationNanos;
+    }
+
+    public boolean isPlaceholder() {
+        return mTrack == null;
+    }
+
+    public boolean isTransition() {
+        return mTrack != null && mFromTrack != null;
+    }
+}
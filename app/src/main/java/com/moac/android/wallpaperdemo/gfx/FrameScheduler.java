@@ -0,0 +1,25 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+/**
+ * Delivers frame callbacks, ideally paced to the display's vsync
+ */
+public interface FrameScheduler {
+
+    public interface Callback {
+        /**
+         * @param frameTimeNanos the time the frame started rendering, in the System.nanoTime() timebase
+         */
+        public void doFrame(long frameTimeNanos);
+    }
+
+    /**
+     * Requests a single callback on the next frame. Requests made while one
+     * is already pending are ignored; callbacks are never queued.
+     */
+    public void scheduleFrame(Callback callback);
+
+    /**
+     * Cancels a pending callback, if any
+     */
+    public void cancelFrame();
+}
@@ -0,0 +1,43 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import android.os.Handler;
+
+/**
+ * Approximately 60fps frames for devices without Choreographer (pre Jelly Bean)
+ */
+public class HandlerFrameScheduler implements FrameScheduler, Runnable {
+
+    private static final long FRAME_INTERVAL_MS = 16;
+
+    private final Handler mHandler;
+    private Callback mCallback;
+
+    public HandlerFrameScheduler(Handler handler) {
+        mHandler = handler;
+    }
+
+    @Override
+    public void scheduleFrame(Callback callback) {
+        if (mCallback == null) {
+            mCallback = callback;
+            mHandler.postDelayed(this, FRAME_INTERVAL_MS);
+        }
+    }
+
+    @Override
+    public void cancelFrame() {
+        if (mCallback != null) {
+            mHandler.removeCallbacks(this);
+            mCallback = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        Callback callback = mCallback;
+        mCallback = null;
+        if (callback != null) {
+            callback.doFrame(System.nanoTime());
+        }
+    }
+}
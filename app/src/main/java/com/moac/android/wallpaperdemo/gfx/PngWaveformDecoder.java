@@ -0,0 +1,370 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Computes the same amplitudes as {@link WaveformProcessor}, but directly from the
+ * encoded PNG rather than from a decoded Bitmap.
+ * <p/>
+ * The image data is inflated one scanline at a time, recording the first transparent
+ * row of each column, and decoding stops as soon as it passes the centre line (or every
+ * column has been resolved). Only the current and previous scanlines are held in memory,
+ * and there is no dependency on android.graphics, so it can run on a plain JVM.
+ * <p/>
+ * Supports all non-interlaced colour types and bit depths, including palette and colour
+ * key transparency via the tRNS chunk.
+ */
+public class PngWaveformDecoder implements StreamProcessor {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int IHDR = 0x49484452;
+    private static final int PLTE = 0x504C5445;
+    private static final int TRNS = 0x74524E53;
+    private static final int IDAT = 0x49444154;
+    private static final int IEND = 0x49454E44;
+
+    private static final int COLOR_GRAY = 0;
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_PALETTE = 3;
+    private static final int COLOR_GRAY_ALPHA = 4;
+    private static final int COLOR_RGBA = 6;
+
+    // Well beyond any waveform image (1800x280), so a corrupt header can't size huge buffers
+    static final int MAX_DIMENSION = 8192;
+    private static final int MAX_PALETTE_ENTRIES = 256;
+
+    @Override
+    public float[] transform(ByteBuffer buffer) throws IOException {
+        return transform(new ByteBufferInputStream(buffer.duplicate()));
+    }
+
+    @Override
+    public float[] transform(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        readSignature(in);
+
+        Header header = null;
+        byte[] paletteAlpha = null;
+        int[] colorKey = null;
+
+        while (true) {
+            int length = in.readInt();
+            int type = in.readInt();
+            if (length < 0)
+                throw new IOException("Invalid PNG chunk length: " + length);
+
+            if (type == IHDR) {
+                header = readHeader(in, length);
+            } else if (type == TRNS) {
+                checkHeader(header);
+                if (header.colorType == COLOR_PALETTE) {
+                    if (length > MAX_PALETTE_ENTRIES)
+                        throw new IOException("Invalid PNG palette transparency length: " + length);
+                    paletteAlpha = new byte[length];
+                    in.readFully(paletteAlpha);
+                } else if (header.colorType == COLOR_GRAY || header.colorType == COLOR_RGB) {
+                    colorKey = new int[length / 2];
+                    for (int i = 0; i < colorKey.length; i++) {
+                        colorKey[i] = in.readUnsignedShort();
+                    }
+                    skipFully(in, length - colorKey.length * 2);
+                } else {
+                    skipFully(in, length);
+                }
+            } else if (type == IDAT) {
+                checkHeader(header);
+                return decodeImageData(in, length, header, paletteAlpha, colorKey);
+            } else if (type == IEND) {
+                throw new IOException("PNG has no image data");
+            } else {
+                // Includes PLTE; colours are irrelevant, only alpha matters.
+                skipFully(in, length);
+            }
+            skipFully(in, 4); // CRC
+        }
+    }
+
+    private static float[] decodeImageData(DataInputStream in, int firstChunkLength, Header header,
+                                           byte[] paletteAlpha, int[] colorKey) throws IOException {
+        final int width = header.width;
+        final float centreLine = (float) header.height / 2f;
+        final int rows = (int) Math.ceil(centreLine);
+        final int bitsPerPixel = header.bitDepth * header.channels();
+        final int bytesPerPixel = Math.max(1, bitsPerPixel / 8);
+        final int rowBytes = (int) (((long) width * bitsPerPixel + 7) / 8);
+
+        float[] normalizedAmplitude = new float[width];
+        boolean[] found = new boolean[width];
+        int remaining = width;
+
+        byte[] current = new byte[rowBytes];
+        byte[] previous = new byte[rowBytes];
+
+        Inflater inflater = new Inflater();
+        try {
+            DataInputStream scanlines = new DataInputStream(
+                    new InflaterInputStream(new ImageDataInputStream(in, firstChunkLength), inflater));
+
+            for (int y = 0; y < rows && remaining > 0; y++) {
+                int filter = scanlines.readUnsignedByte();
+                scanlines.readFully(current);
+                unfilter(filter, current, previous, bytesPerPixel);
+
+                for (int x = 0; x < width; x++) {
+                    if (!found[x] && isTransparent(current, x, header, paletteAlpha, colorKey)) {
+                        normalizedAmplitude[x] = (centreLine - y) / centreLine;
+                        found[x] = true;
+                        remaining--;
+                    }
+                }
+
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+        } finally {
+            inflater.end();
+        }
+        // Deliberately don't read the rest of the image.
+        return normalizedAmplitude;
+    }
+
+    // Reverses the per-scanline filter in place, see http://www.w3.org/TR/PNG/#9Filters
+    private static void unfilter(int filter, byte[] row, byte[] previous, int bpp) throws IOException {
+        final int length = row.length;
+        switch (filter) {
+            case 0: // None
+                break;
+            case 1: // Sub
+                for (int i = bpp; i < length; i++) {
+                    row[i] += row[i - bpp];
+                }
+                break;
+            case 2: // Up
+                for (int i = 0; i < length; i++) {
+                    row[i] += previous[i];
+                }
+                break;
+            case 3: // Average
+                for (int i = 0; i < length; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    row[i] += (left + (previous[i] & 0xFF)) >>> 1;
+                }
+                break;
+            case 4: // Paeth
+                for (int i = 0; i < length; i++) {
+                    int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    int b = previous[i] & 0xFF;
+                    int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+                    row[i] += paeth(a, b, c);
+                }
+                break;
+            default:
+                throw new IOException("Invalid PNG filter type: " + filter);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc)
+            return a;
+        return pb <= pc ? b : c;
+    }
+
+    private static boolean isTransparent(byte[] row, int x, Header header, byte[] paletteAlpha, int[] colorKey) {
+        final int depth = header.bitDepth;
+        switch (header.colorType) {
+            case COLOR_RGBA:
+                // Only the high byte of 16 bit samples survives decoding to 8 bits
+                return row[depth == 8 ? x * 4 + 3 : x * 8 + 6] == 0;
+            case COLOR_GRAY_ALPHA:
+                return row[depth == 8 ? x * 2 + 1 : x * 4 + 2] == 0;
+            case COLOR_PALETTE:
+                int index = sample(row, x, depth);
+                return paletteAlpha != null && index < paletteAlpha.length && paletteAlpha[index] == 0;
+            case COLOR_GRAY:
+                return colorKey != null && colorKey.length >= 1 && sample(row, x, depth) == colorKey[0];
+            case COLOR_RGB:
+                return colorKey != null && colorKey.length >= 3
+                        && sample(row, x * 3, depth) == colorKey[0]
+                        && sample(row, x * 3 + 1, depth) == colorKey[1]
+                        && sample(row, x * 3 + 2, depth) == colorKey[2];
+            default:
+                return false;
+        }
+    }
+
+    // Reads the n-th sample of the given bit depth from a scanline
+    private static int sample(byte[] row, int n, int depth) {
+        switch (depth) {
+            case 16:
+                return ((row[n * 2] & 0xFF) << 8) | (row[n * 2 + 1] & 0xFF);
+            case 8:
+                return row[n] & 0xFF;
+            default:
+                int bit = n * depth;
+                int shift = 8 - depth - (bit & 7);
+                return ((row[bit >>> 3] & 0xFF) >>> shift) & ((1 << depth) - 1);
+        }
+    }
+
+    private static void readSignature(DataInputStream in) throws IOException {
+        byte[] signature = new byte[SIGNATURE.length];
+        in.readFully(signature);
+        for (int i = 0; i < SIGNATURE.length; i++) {
+            if (signature[i] != SIGNATURE[i])
+                throw new IOException("Not a PNG");
+        }
+    }
+
+    private static Header readHeader(DataInputStream in, int length) throws IOException {
+        if (length != 13)
+            throw new IOException("Invalid PNG header length: " + length);
+        Header header = new Header();
+        header.width = in.readInt();
+        header.height = in.readInt();
+        header.bitDepth = in.readUnsignedByte();
+        header.colorType = in.readUnsignedByte();
+        int compression = in.readUnsignedByte();
+        int filter = in.readUnsignedByte();
+        int interlace = in.readUnsignedByte();
+
+        if (header.width <= 0 || header.height <= 0)
+            throw new IOException("Invalid PNG dimensions: " + header.width + "x" + header.height);
+        if (header.width > MAX_DIMENSION || header.height > MAX_DIMENSION)
+            throw new IOException("PNG too large for a waveform: " + header.width + "x" + header.height);
+        if (header.channels() == 0)
+            throw new IOException("Unsupported PNG colour type: " + header.colorType);
+        if (compression != 0 || filter != 0)
+            throw new IOException("Unsupported PNG compression or filter method");
+        if (interlace != 0)
+            throw new IOException("Interlaced PNGs are not supported");
+        return header;
+    }
+
+    private static void checkHeader(Header header) throws IOException {
+        if (header == null)
+            throw new IOException("PNG header missing");
+    }
+
+    private static void skipFully(DataInputStream in, int count) throws IOException {
+        int remaining = count;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                // skipBytes() may legitimately skip nothing, so check for the end of the stream
+                in.readByte();
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static class Header {
+        int width;
+        int height;
+        int bitDepth;
+        int colorType;
+
+        int channels() {
+            switch (colorType) {
+                case COLOR_GRAY:
+                case COLOR_PALETTE:
+                    return 1;
+                case COLOR_GRAY_ALPHA:
+                    return 2;
+                case COLOR_RGB:
+                    return 3;
+                case COLOR_RGBA:
+                    return 4;
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    /*
+     * Presents the contents of consecutive IDAT chunks as a single stream,
+     * starting partway into the first chunk.
+     */
+    private static class ImageDataInputStream extends InputStream {
+
+        private final DataInputStream mIn;
+        private final byte[] mSingle = new byte[1];
+        private int mRemaining;
+        private boolean mEnded;
+
+        ImageDataInputStream(DataInputStream in, int firstChunkLength) {
+            mIn = in;
+            mRemaining = firstChunkLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(mSingle, 0, 1) == -1 ? -1 : mSingle[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            while (mRemaining == 0) {
+                if (mEnded || !nextChunk())
+                    return -1;
+            }
+            int read = mIn.read(buffer, offset, Math.min(count, mRemaining));
+            if (read == -1)
+                throw new EOFException("Truncated PNG image data");
+            mRemaining -= read;
+            return read;
+        }
+
+        private boolean nextChunk() throws IOException {
+            skipFully(mIn, 4); // CRC of the previous chunk
+            int length = mIn.readInt();
+            int type = mIn.readInt();
+            if (type != IDAT) {
+                mEnded = true;
+                return false;
+            }
+            mRemaining = length;
+            return true;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) {
+            if (!mBuffer.hasRemaining())
+                return -1;
+            int read = Math.min(count, mBuffer.remaining());
+            mBuffer.get(buffer, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+public interface StreamProcessor {
+
+    /**
+     * Extract the one dimensional data from the encoded image stream
+     */
+    public float[] transform(InputStream inputStream) throws IOException;
+
+    /**
+     * Extract the one dimensional data from the encoded image buffer
+     */
+    public float[] transform(ByteBuffer buffer) throws IOException;
+}
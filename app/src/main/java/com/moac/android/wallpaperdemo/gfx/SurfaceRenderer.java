@@ -0,0 +1,303 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Draws {@link Frame}s on a surface from a dedicated thread, so slow frames don't hold up
+ * input and the other callbacks on the main thread, and vice versa.
+ * <p/>
+ * Only the render thread locks the surface or touches the drawer and mask cache; other
+ * threads submit immutable frame descriptions. If frames are submitted faster than they
+ * can be drawn, only the latest is drawn. A transition is submitted once and the render
+ * thread paces its frames, so nothing is allocated or handed over per frame.
+ * <p/>
+ * The owner must forward the surface callbacks. {@link #onSurfaceDestroyed()} blocks until
+ * the render thread has let go of the surface, so nothing is drawn on a destroyed surface.
+ */
+public class SurfaceRenderer {
+
+    private static final String TAG = SurfaceRenderer.class.getSimpleName();
+
+    // Long enough for any sane frame, short enough to not ANR
+    private static final long SURFACE_RELEASE_TIMEOUT_MS = 1000;
+
+    private final SurfaceHolder mHolder;
+    private final TrackDrawer mDrawer;
+    private final WaveformMaskCache mMaskCache;
+    private final String mPlaceholderText;
+    private final Handler mHandler;
+    private final AtomicReference<Frame> mPendingFrame = new AtomicReference<Frame>();
+
+    // Render thread only
+    private boolean mHasSurface;
+    private int mWidth;
+    private int mHeight;
+    private final Rect mDirtyRect = new Rect();
+    private final Paint mPlaceholderPaint = new Paint();
+    private Track mLengthsFromTrack;
+    private Track mLengthsToTrack;
+    private float[] mFromColumnLengths;
+    private float[] mToColumnLengths;
+    private TransitionAnimator mTransitionAnimator;
+    private Frame mTransition;
+
+    private final Runnable mDrawPendingFrame = new Runnable() {
+        @Override
+        public void run() {
+            Frame frame = mPendingFrame.getAndSet(null);
+            if (frame == null) {
+                return;
+            }
+            if (frame.isTransition()) {
+                mTransition = frame;
+                mTransitionAnimator.start(frame.getStartTimeNanos(), frame.getDurationNanos());
+            } else {
+                stopTransition();
+                draw(frame, 1f);
+            }
+        }
+    };
+
+    private final TransitionAnimator.Listener mTransitionListener = new TransitionAnimator.Listener() {
+        @Override
+        public void onTransitionFrame(float fraction) {
+            draw(mTransition, fraction);
+        }
+
+        @Override
+        public void onTransitionEnd() {
+            mTransition = null;
+        }
+    };
+
+    public SurfaceRenderer(SurfaceHolder holder, TrackDrawer drawer, WaveformMaskCache maskCache, String placeholderText) {
+        this(holder, drawer, maskCache, placeholderText, null);
+    }
+
+    /**
+     * @param frameScheduler paces transition frames on the render thread; if null, the
+     *                       display's vsync where available
+     */
+    SurfaceRenderer(SurfaceHolder holder, TrackDrawer drawer, WaveformMaskCache maskCache, String placeholderText,
+                    final FrameScheduler frameScheduler) {
+        mHolder = holder;
+        mDrawer = drawer;
+        mMaskCache = maskCache;
+        mPlaceholderText = placeholderText;
+        mPlaceholderPaint.setColor(Color.WHITE);
+        mPlaceholderPaint.setTextAlign(Paint.Align.CENTER);
+        mPlaceholderPaint.setTextSize(24);
+
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        // Choreographer belongs to the thread it's created on
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mTransitionAnimator = new TransitionAnimator(
+                        frameScheduler != null ? frameScheduler : createFrameScheduler(), mTransitionListener);
+            }
+        });
+    }
+
+    /**
+     * Draws the frame as soon as possible, replacing any frame not yet drawn. Any thread.
+     */
+    public void submit(Frame frame) {
+        if (mPendingFrame.getAndSet(frame) == null) {
+            mHandler.post(mDrawPendingFrame);
+        }
+    }
+
+    /**
+     * Releases anything cached for drawing the track. Any thread.
+     */
+    public void evict(final Track track) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mMaskCache.evict(track.getId());
+                mDrawer.evict(track);
+            }
+        });
+    }
+
+    public void onSurfaceCreated() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mHasSurface = true;
+                // The new surface has none of the previous frame
+                mDrawer.invalidate();
+            }
+        });
+    }
+
+    public void onSurfaceChanged(final int width, final int height) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mHasSurface = true;
+                mWidth = width;
+                mHeight = height;
+                mDrawer.invalidate();
+                // Column lengths depend on the surface size
+                mLengthsFromTrack = null;
+                mLengthsToTrack = null;
+            }
+        });
+    }
+
+    /**
+     * Returns once the render thread will no longer draw on the surface
+     */
+    public void onSurfaceDestroyed() {
+        boolean released = runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mHasSurface = false;
+                stopTransition();
+            }
+        }, SURFACE_RELEASE_TIMEOUT_MS);
+        if (!released) {
+            Log.w(TAG, "onSurfaceDestroyed() - timed out waiting for render thread");
+        }
+    }
+
+    /*
+     * Waits until every frame submitted so far has been drawn, for tests
+     */
+    boolean awaitIdle(long timeoutMs) {
+        return runAndWait(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, timeoutMs);
+    }
+
+    // Runs on the render thread after everything already posted; true if it ran in time or the thread has quit
+    boolean runAndWait(final Runnable runnable, long timeoutMs) {
+        final CountDownLatch done = new CountDownLatch(1);
+        boolean posted = mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                done.countDown();
+            }
+        });
+        if (!posted) {
+            return true; // already quit
+        }
+        try {
+            return done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Drops any pending frame and stops the render thread once it has released its resources
+     */
+    public void quit() {
+        mPendingFrame.set(null);
+        mHandler.removeCallbacks(mDrawPendingFrame);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mHasSurface = false;
+                stopTransition();
+                Log.i(TAG, String.format("quit() - Mask cache hits: %d, misses: %d", mMaskCache.getHitCount(), mMaskCache.getMissCount()));
+                mMaskCache.clear();
+                Looper.myLooper().quit();
+            }
+        });
+    }
+
+    private void stopTransition() {
+        mTransitionAnimator.cancel();
+        mTransition = null;
+    }
+
+    private FrameScheduler createFrameScheduler() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ?
+                new ChoreographerFrameScheduler() :
+                new HandlerFrameScheduler(mHandler);
+    }
+
+    private void draw(Frame frame, float fraction) {
+        if (!mHasSurface || mWidth <= 0 || mHeight <= 0) {
+            return;
+        }
+        final Track track = frame.getTrack();
+        Rect dirty = null;
+        if (frame.isPlaceholder()) {
+            mDrawer.invalidate();
+        } else {
+            mDrawer.setColor(frame.getColor());
+            if (frame.isTransition()) {
+                updateColumnLengths(frame.getFromTrack(), track);
+                mDrawer.getDirtyBounds(track, mFromColumnLengths, mToColumnLengths, fraction,
+                        mWidth, mHeight, mDirtyRect);
+            } else {
+                mDrawer.getDirtyBounds(track, null, null, 1f, mWidth, mHeight, mDirtyRect);
+            }
+            if (mDirtyRect.isEmpty()) {
+                return; // already showing it, e.g. the end of a transition
+            }
+            dirty = mDirtyRect;
+        }
+
+        Canvas c = null;
+        try {
+            // The framework may enlarge the dirty region, so always draw the whole frame
+            c = dirty == null ? mHolder.lockCanvas() : mHolder.lockCanvas(dirty);
+            if (c == null) {
+                // Nothing was drawn, so the next frame can't rely on this one
+                mDrawer.invalidate();
+            } else if (frame.isPlaceholder()) {
+                drawPlaceholderOn(c);
+            } else if (frame.isTransition()) {
+                mDrawer.drawTransitionOn(c, track, mFromColumnLengths, mToColumnLengths, fraction);
+            } else {
+                mMaskCache.drawOn(c, mDrawer, track);
+            }
+        } finally {
+            if (c != null) {
+                mHolder.unlockCanvasAndPost(c);
+            }
+        }
+    }
+
+    // Computes both tracks' column lengths once per transition, so each frame only interpolates
+    private void updateColumnLengths(Track from, Track to) {
+        if (from != mLengthsFromTrack || to != mLengthsToTrack) {
+            mFromColumnLengths = mDrawer.getColumnLengths(from, mWidth, mHeight, mFromColumnLengths);
+            mToColumnLengths = mDrawer.getColumnLengths(to, mWidth, mHeight, mToColumnLengths);
+            mLengthsFromTrack = from;
+            mLengthsToTrack = to;
+        }
+    }
+
+    private void drawPlaceholderOn(Canvas canvas) {
+        canvas.drawColor(Color.BLACK);
+        canvas.drawText(mPlaceholderText, canvas.getWidth() / 2, canvas.getHeight() / 2, mPlaceholderPaint);
+    }
+}
@@ -0,0 +1,111 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds each track's title measured and, if too wide, ellipsized, so that drawing
+ * a title involves no measurement. A layout is recalculated only when the available
+ * width or text size changes; evict tracks once they're no longer shown.
+ * <p/>
+ * Only the text to draw and its width are cached, not its glyphs: drawing it still
+ * shapes the text each frame, unless the platform's own text layout cache has it.
+ * Caching a StaticLayout per track would avoid that, but would tie {@link DrawingBackend}
+ * to android.text. For a single short line it's the measuring and ellipsizing that
+ * cost, and those are done once.
+ * <p/>
+ * Not thread safe; use from the drawing thread only.
+ */
+public class TitleLayoutCache {
+
+    static final String ELLIPSIS = "…";
+
+    private final Map<Long, Layout> mLayouts = new HashMap<Long, Layout>();
+
+    /**
+     * Returns the track's title laid out to fit within the width, measuring with the backend if needed
+     */
+    public Layout get(DrawingBackend backend, Track track, float maxWidth, float textSize) {
+        Layout layout = mLayouts.get(track.getId());
+        if (layout == null || layout.maxWidth != maxWidth || layout.textSize != textSize) {
+            layout = layout(backend, track.getTitle(), maxWidth, textSize);
+            mLayouts.put(track.getId(), layout);
+        }
+        return layout;
+    }
+
+    public void evict(long trackId) {
+        mLayouts.remove(trackId);
+    }
+
+    public void clear() {
+        mLayouts.clear();
+    }
+
+    public int size() {
+        return mLayouts.size();
+    }
+
+    static Layout layout(DrawingBackend backend, String title, float maxWidth, float textSize) {
+        String text = title == null ? "" : title;
+        float width = backend.measureText(text, textSize);
+        if (width > maxWidth) {
+            text = ellipsize(backend, text, maxWidth, textSize);
+            width = backend.measureText(text, textSize);
+        }
+        return new Layout(text, width, maxWidth, textSize);
+    }
+
+    // The longest prefix that fits with an ellipsis; measured width grows with length, so binary search
+    private static String ellipsize(DrawingBackend backend, String text, float maxWidth, float textSize) {
+        int low = 0;
+        int high = text.length();
+        String best = ELLIPSIS;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            String candidate = truncate(text, mid);
+            if (backend.measureText(candidate, textSize) <= maxWidth) {
+                best = candidate;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return best;
+    }
+
+    private static String truncate(String text, int length) {
+        // Don't split a surrogate pair
+        if (length > 0 && Character.isHighSurrogate(text.charAt(length - 1))) {
+            length--;
+        }
+        return text.substring(0, length).trim() + ELLIPSIS;
+    }
+
+    /**
+     * A title as it will be drawn
+     */
+    public static class Layout {
+        final String text;
+        final float width;
+        final float maxWidth;
+        final float textSize;
+
+        Layout(String text, float width, float maxWidth, float textSize) {
+            this.text = text;
+            this.width = width;
+            this.maxWidth = maxWidth;
+            this.textSize = textSize;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public float getWidth() {
+            return width;
+        }
+    }
+}
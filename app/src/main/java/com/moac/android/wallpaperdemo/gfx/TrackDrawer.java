@@ -1,152 +1,458 @@
 package com.moac.android.wallpaperdemo.gfx;
 
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.RectF;
+import android.graphics.Rect;
 import android.util.Log;
 
 import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.api.model.WaveformPyramid;
 
+/**
+ * Draws tracks' waveforms and titles, either directly on a Canvas or through
+ * any {@link DrawingBackend}. Drawing through a backend other than a Canvas
+ * creates no android.graphics objects, but still needs the Android runtime
+ * for Color, Rect and Log.
+ */
 public class TrackDrawer {
 
+    public enum RenderMode {
+        /**
+         * Each column is drawn with separate oval and circle draw calls
+         */
+        PRIMITIVES,
+        /**
+         * All columns are drawn with a single call, see {@link DrawingBackend#drawColumns},
+         * with their lengths recalculated only when the track or surface size changes
+         */
+        PATH
+    }
+
     private static final String TAG = TrackDrawer.class.getSimpleName();
     private static final boolean VERBOSE_LOGGING = false;
 
     private static final int DEFAULT_BACKGROUND_COLOR = Color.LTGRAY;
     private static final int DEFAULT_WAVEFORM_COLOR = Color.WHITE;
     private static final int DEFAULT_TEXT_COLOR = Color.WHITE;
-    private static final int DEFAULT_TEXT_SIZE_PX = 16;
+    private static final int DEFAULT_TEXT_SIZE_DP = 16;
     private static final int TEXT_OFFSET_PX = 10;
+    private static final int DIRTY_MARGIN_PX = 1; // allows for anti-aliasing
+
+    // The width of the waveform PNGs. Decoded in full however few columns are drawn, so
+    // that WaveformPyramid reduces them by min/max rather than the decoder dropping peaks,
+    // and so that a stored waveform suits any surface width.
+    static final int DECODE_WIDTH = 1800;
+
+    // Half the 280px height of the waveform PNGs. Amplitudes are normalised, so this
+    // only limits their precision, to a little over 1%.
+    static final int MAX_DECODE_HEIGHT = 140;
 
-    private final Paint mBackgroundPaint;
-    private final Paint mWaveformPaint;
-    private final Paint mTextPaint;
     private final float mColumnWidthPx; // waveform column
     private final float mColumnPaddingPx; // padding between columns
+    private final float mTextSizePx;
+    private int mWaveformColor = DEFAULT_WAVEFORM_COLOR;
+    private int mTextColor = DEFAULT_TEXT_COLOR;
+    private Geometry mGeometry;
+    private RenderMode mRenderMode = RenderMode.PRIMITIVES;
+    private CanvasDrawingBackend mCanvasBackend; // reused for each Canvas
+
+    // Titles measured and ellipsized once per track and width, and the last drawn
+    private final TitleLayoutCache mTitleLayouts = new TitleLayoutCache();
+    private Track mTitleTrack;
+    private TitleLayoutCache.Layout mTitleLayout;
+
+    // The column lengths drawn with a single call, and what they were calculated from
+    private float[] mPathLengths;
+    private WaveformPyramid mPathPyramid;
+    private Geometry mPathGeometry;
+    private float[] mTransitionLengths; // reused for each transition frame
+
+    // What the last frame drew, for working out what the next will change
+    private Geometry mDrawnGeometry;
+    private Track mDrawnTrack;
+    private int mDrawnColor;
+    private float[] mDrawnLengths;
+    private int mColor = DEFAULT_BACKGROUND_COLOR;
+    private final float[] mHsv = new float[3]; // reused for each shade
 
     public TrackDrawer(float columnWidth, float gap) {
-        // Define Paint values once
-        mBackgroundPaint = buildDefaultBackgroundPaint();
-        mWaveformPaint = buildDefaultWaveformPaint();
-        mTextPaint = buildDefaultTextPaint();
+        this(columnWidth, gap, 1f);
+    }
 
+    /**
+     * @param density the display's logical density, for sizing the title
+     */
+    public TrackDrawer(float columnWidth, float gap, float density) {
         // Define column properties
         mColumnWidthPx = columnWidth;
         mColumnPaddingPx = gap;
+        mTextSizePx = DEFAULT_TEXT_SIZE_DP * density;
     }
 
     public void setColor(int color) {
-        mBackgroundPaint.setColor(color);
-        mWaveformPaint.setColor(toShade(color));
-        mTextPaint.setColor(toShade(color));
+        mColor = color;
+        mWaveformColor = toShade(color);
+        mTextColor = toShade(color);
+    }
+
+    public void setRenderMode(RenderMode renderMode) {
+        mRenderMode = renderMode;
     }
 
+    public int getColor() {
+        return mColor;
+    }
+
+    /**
+     * Releases anything cached for the track, once it's no longer going to be drawn
+     */
+    public void evict(Track track) {
+        mTitleLayouts.evict(track.getId());
+        if (track == mTitleTrack) {
+            mTitleTrack = null;
+            mTitleLayout = null;
+        }
+    }
+
+    /**
+     * Forces the next frame's dirty bounds to cover the whole surface, e.g. when the surface is recreated
+     */
+    public void invalidate() {
+        mDrawnGeometry = null;
+    }
+
+    /**
+     * Calculates the bounds that the next frame will change, relative to the last, and records
+     * it as the last frame drawn. Call once per frame, before drawing it.
+     * <p/>
+     * The whole surface is dirty if the colour, track or surface size has changed; otherwise just
+     * the columns whose lengths differ, which is empty if nothing has changed.
+     *
+     * @param fromLengths if not null, the frame is of a transition, see {@link #drawTransitionOn}
+     */
+    public void getDirtyBounds(Track track, float[] fromLengths, float[] toLengths, float fraction,
+                               int width, int height, Rect outDirty) {
+        final Geometry geometry = getGeometry(width, height);
+        final int columns = geometry.columns;
+        final WaveformPyramid pyramid = track.getWaveformPyramid();
+        final boolean isTransition = fromLengths != null && toLengths != null
+                && fromLengths.length == columns && toLengths.length == columns;
+        boolean isFull = geometry != mDrawnGeometry || track != mDrawnTrack || mColor != mDrawnColor
+                || (!isTransition && (pyramid == null || pyramid.getLevelSize(0) == 0));
+
+        if (mDrawnLengths == null || mDrawnLengths.length != columns) {
+            mDrawnLengths = new float[columns];
+            isFull = true;
+        }
+
+        float minLeft = Float.MAX_VALUE;
+        float maxRight = -Float.MAX_VALUE;
+        float maxLength = -1f;
+        final int level = isTransition || pyramid == null ? 0 : pyramid.selectLevel(columns);
+        for (int col = 0; col < columns && (isTransition || pyramid != null); col++) {
+            float length = isTransition ?
+                    fromLengths[col] + (toLengths[col] - fromLengths[col]) * fraction :
+                    pyramid.getMax(level, col, columns) * geometry.heightScalingFactor;
+            if (length != mDrawnLengths[col]) {
+                minLeft = Math.min(minLeft, geometry.columnLefts[col]);
+                maxRight = Math.max(maxRight, geometry.columnLefts[col] + mColumnWidthPx);
+                maxLength = Math.max(maxLength, Math.max(length, mDrawnLengths[col]));
+                mDrawnLengths[col] = length;
+            }
+        }
+
+        mDrawnGeometry = geometry;
+        mDrawnTrack = track;
+        mDrawnColor = mColor;
+
+        if (isFull) {
+            outDirty.set(0, 0, width, height);
+        } else if (maxLength < 0) {
+            outDirty.setEmpty();
+        } else {
+            // Columns are centred on the centre line, with a tail a column width beyond each end
+            float extent = maxLength / 2f + 1.5f * mColumnWidthPx + DIRTY_MARGIN_PX;
+            outDirty.set((int) Math.floor(minLeft - DIRTY_MARGIN_PX),
+                    (int) Math.floor(geometry.centreLine - extent),
+                    (int) Math.ceil(maxRight + DIRTY_MARGIN_PX),
+                    (int) Math.ceil(geometry.centreLine + extent));
+            if (!outDirty.intersect(0, 0, width, height)) {
+                outDirty.setEmpty();
+            }
+        }
+    }
+
+    /**
+     * Draws the track's waveform and title. Column geometry is cached per surface size,
+     * so after the first frame at a given size this allocates nothing.
+     */
     public void drawOn(Canvas canvas, Track track) {
+        drawOn(getCanvasBackend(canvas), track);
+    }
+
+    /**
+     * As {@link #drawOn(android.graphics.Canvas, Track)}, through any backend
+     */
+    public void drawOn(DrawingBackend backend, Track track) {
 
-        final float[] waveform = track.getWaveformData();
+        final WaveformPyramid pyramid = track.getWaveformPyramid();
 
         // Don't draw if we haven't got anything to draw!
-        if (waveform == null || waveform.length == 0) {
+        if (pyramid == null || pyramid.getLevelSize(0) == 0) {
             Log.w(TAG, "Track contains empty waveform: " + track.getId());
             return;
         }
 
+        final Geometry geometry = getGeometry(backend.getWidth(), backend.getHeight());
+
         // Draw background
-        canvas.drawPaint(mBackgroundPaint);
+        backend.fill(mColor);
+
+        drawWaveform(backend, pyramid, geometry, mWaveformColor);
+
+        // Write track title text below waveform
+        drawTitle(backend, track, geometry);
+    }
+
+    /**
+     * Draws just the track's waveform, opaque and with no background or title, for use as
+     * an alpha mask by {@link #drawOn(android.graphics.Canvas, Track, android.graphics.Bitmap)}.
+     */
+    public void drawWaveformMaskOn(Canvas canvas, Track track) {
+        final WaveformPyramid pyramid = track.getWaveformPyramid();
+        if (pyramid == null || pyramid.getLevelSize(0) == 0) {
+            Log.w(TAG, "Track contains empty waveform: " + track.getId());
+            return;
+        }
+        final CanvasDrawingBackend backend = getCanvasBackend(canvas);
+        drawWaveform(backend, pyramid, getGeometry(backend.getWidth(), backend.getHeight()), Color.WHITE);
+    }
 
-        logV(TAG, "drawOn() - data width: " + waveform.length);
-        logV(TAG, "drawOn() - canvas width: " + canvas.getWidth());
-        logV(TAG, "drawOn() - column width & padding width: " + mColumnWidthPx + "," + mColumnPaddingPx);
+    /**
+     * As {@link #drawOn(android.graphics.Canvas, Track)}, but tints a mask drawn by
+     * {@link #drawWaveformMaskOn} for the same track and size, rather than rasterizing the
+     * waveform again.
+     */
+    public void drawOn(Canvas canvas, Track track, Bitmap waveformMask) {
+        final CanvasDrawingBackend backend = getCanvasBackend(canvas);
+        final Geometry geometry = getGeometry(backend.getWidth(), backend.getHeight());
+        backend.fill(mColor);
+        backend.drawMask(waveformMask, mWaveformColor);
+        drawTitle(backend, track, geometry);
+    }
 
-        float drawableWidth = canvas.getWidth() - mColumnPaddingPx;
-        logV(TAG, "drawOn() - usableWidth: " + drawableWidth);
+    /**
+     * Draws a frame of the transition between two tracks' waveforms, with the column
+     * lengths interpolated between those precomputed by {@link #getColumnLengths}. The
+     * background and title are those of the track being transitioned to. Like
+     * {@link #drawOn}, this allocates nothing once the geometry is cached.
+     */
+    public void drawTransitionOn(Canvas canvas, Track to, float[] fromLengths, float[] toLengths, float fraction) {
+        drawTransitionOn(getCanvasBackend(canvas), to, fromLengths, toLengths, fraction);
+    }
 
-        // The number of whole columns that fit in the drawable width with the desired column spacing
-        final int columns = (int) (drawableWidth / (mColumnPaddingPx));
-        logV(TAG, "drawOn() - columns: " + columns);
+    /**
+     * As {@link #drawTransitionOn(android.graphics.Canvas, Track, float[], float[], float)}, through any backend
+     */
+    public void drawTransitionOn(DrawingBackend backend, Track to, float[] fromLengths, float[] toLengths, float fraction) {
+        final Geometry geometry = getGeometry(backend.getWidth(), backend.getHeight());
+        if (fromLengths.length != geometry.columns || toLengths.length != geometry.columns) {
+            // Surface has changed size since the transition began, skip to the end.
+            drawOn(backend, to);
+            return;
+        }
 
-        // The remainder, we want to shift the columns to the centre of the available width.
-        float remainder = drawableWidth % columns;
-        logV(TAG, "drawOn() - remainder: " + remainder);
+        backend.fill(mColor);
 
-        // The number of datapoints that contribute to a column
-        final int datapoints = waveform.length / columns;
-        logV(TAG, "drawOn() - datapoint per column: " + datapoints);
+        float[] lengths = null;
+        if (mRenderMode == RenderMode.PATH) {
+            if (mTransitionLengths == null || mTransitionLengths.length != geometry.columns) {
+                mTransitionLengths = new float[geometry.columns];
+            }
+            lengths = mTransitionLengths;
+        }
+        for (int col = 0; col < geometry.columns; col++) {
+            float columnLength = fromLengths[col] + (toLengths[col] - fromLengths[col]) * fraction;
+            if (lengths != null) {
+                lengths[col] = columnLength;
+            } else {
+                addColumn(backend, geometry, col, columnLength, mWaveformColor);
+            }
+        }
+        if (lengths != null) {
+            backend.drawColumns(geometry.columnLefts, lengths, mColumnWidthPx, geometry.centreLine, mWaveformColor);
+        }
 
-        // Max height to be used by the waveform
-        final int heightScalingFactor = canvas.getHeight() / 3;
-        final int centreLine = canvas.getHeight() / 2;
+        drawTitle(backend, to, geometry);
+    }
 
-        // Incrementing column borders
-        float left = (mColumnPaddingPx + remainder) / 2; // initial margin
-        float right = left + mColumnWidthPx;
+    /**
+     * Calculates the length of each column drawn for the track on a surface of the given size.
+     *
+     * @param reuse returned if it has the right number of columns, otherwise a new array is.
+     */
+    public float[] getColumnLengths(Track track, int width, int height, float[] reuse) {
+        return getColumnLengths(track.getWaveformPyramid(), getGeometry(width, height), reuse);
+    }
+
+    private static float[] getColumnLengths(WaveformPyramid pyramid, Geometry geometry, float[] reuse) {
+        final int columns = geometry.columns;
+        float[] lengths = reuse != null && reuse.length == columns ? reuse : new float[columns];
 
+        // Peak of the datapoints under each column, so that peaks survive at any width
+        final int level = pyramid.selectLevel(columns);
         for (int col = 0; col < columns; col++) {
-            logV(TAG, "drawOn() - drawing column: " + col);
-            logV(TAG, "drawOn() - waveform value: " + waveform[col * datapoints]);
-            float columnLength = waveform[col * datapoints] * heightScalingFactor;
-            float top = centreLine - (columnLength / 2);
-            float bottom = top + columnLength;
+            lengths[col] = pyramid.getMax(level, col, columns) * geometry.heightScalingFactor;
+        }
+        return lengths;
+    }
 
-            logV(TAG, "drawOn() - left: " + left + " right: " + right + " top: " + top + " bottom: " + bottom);
+    private void drawWaveform(DrawingBackend backend, WaveformPyramid pyramid, Geometry geometry, int color) {
+        if (mRenderMode == RenderMode.PATH) {
+            // Recalculate only when the track or geometry has changed
+            if (pyramid != mPathPyramid || geometry != mPathGeometry) {
+                mPathLengths = getColumnLengths(pyramid, geometry, mPathLengths);
+                mPathPyramid = pyramid;
+                mPathGeometry = geometry;
+            }
+            backend.drawColumns(geometry.columnLefts, mPathLengths, mColumnWidthPx, geometry.centreLine, color);
+        } else {
+            addColumns(backend, pyramid, geometry, color);
+        }
+    }
 
-            RectF rect = new RectF(left, top, right, bottom);
-            canvas.drawOval(rect, mWaveformPaint);
-            drawTails(canvas, left, right, top, true, 1);
-            drawTails(canvas, left, right, bottom, false, 1);
+    // Draws each column and its tails with separate calls
+    private void addColumns(DrawingBackend backend, WaveformPyramid pyramid, Geometry geometry, int color) {
+        // The coarsest waveform level that still has a datapoint per column
+        final int columns = geometry.columns;
+        final int level = pyramid.selectLevel(columns);
+        if (VERBOSE_LOGGING)
+            logV(TAG, "addColumns() - data width: " + pyramid.getLevelSize(0) + " level: " + level + " size: " + pyramid.getLevelSize(level));
 
-            // Increment for next column
-            left = right + mColumnPaddingPx;
-            right = left + mColumnWidthPx;
+        for (int col = 0; col < columns; col++) {
+            // Peak of the datapoints under the column, so that peaks survive at any width
+            final float peak = pyramid.getMax(level, col, columns);
+            addColumn(backend, geometry, col, peak * geometry.heightScalingFactor, color);
         }
+    }
 
-        // Write track title text below waveform
-        String title = track.getTitle();
-        canvas.drawText(title, canvas.getWidth() / 2f, centreLine + (heightScalingFactor / 2f) + (2f * mColumnWidthPx) + TEXT_OFFSET_PX, mTextPaint);
+    private void addColumn(DrawingBackend backend, Geometry geometry, int col, float columnLength, int color) {
+        final float radius = mColumnWidthPx / 2f;
+        float top = geometry.centreLine - (columnLength / 2);
+        float bottom = top + columnLength;
+        float left = geometry.columnLefts[col];
+        float right = left + mColumnWidthPx;
+
+        if (VERBOSE_LOGGING)
+            logV(TAG, "addColumn() - column: " + col + " left: " + left + " right: " + right + " top: " + top + " bottom: " + bottom);
+
+        // The column, with tails; a circle a column width above and below
+        float centreX = left + radius;
+        backend.drawOval(left, top, right, bottom, color);
+        backend.drawCircle(centreX, top - mColumnWidthPx, radius, color);
+        backend.drawCircle(centreX, bottom + mColumnWidthPx, radius, color);
+    }
+
+    private void drawTitle(DrawingBackend backend, Track track, Geometry geometry) {
+        // Only look up the layout when the track changes, it's drawn every frame
+        TitleLayoutCache.Layout layout = mTitleLayout;
+        if (track != mTitleTrack || layout.maxWidth != geometry.titleMaxWidth) {
+            layout = mTitleLayouts.get(backend, track, geometry.titleMaxWidth, mTextSizePx);
+            mTitleTrack = track;
+            mTitleLayout = layout;
+        }
+        backend.drawText(layout.text, geometry.titleX, geometry.titleY, layout.textSize, mTextColor);
+    }
+
+    // Created lazily, so that drawing through other backends needs no android.graphics objects
+    private CanvasDrawingBackend getCanvasBackend(Canvas canvas) {
+        if (mCanvasBackend == null) {
+            mCanvasBackend = new CanvasDrawingBackend();
+        }
+        return mCanvasBackend.setCanvas(canvas);
     }
 
-    // Draws the circles on either top or bottom of the column
-    private void drawTails(Canvas canvas, float left, float right, float initY, boolean isTop, int count) {
-        float startY = initY;
-        for (int i = 0; i < count; i++) {
-            startY = isTop ? startY - mColumnWidthPx : startY + mColumnWidthPx;
-            canvas.drawCircle(left + ((right - left) / 2f), startY, mColumnWidthPx / 2f, mWaveformPaint);
-            startY = isTop ? startY - mColumnWidthPx : startY + mColumnWidthPx;  // Gap
+    // Returns the cached geometry, recalculating only if the surface size has changed
+    private Geometry getGeometry(int width, int height) {
+        Geometry geometry = mGeometry;
+        if (geometry == null || geometry.width != width || geometry.height != height) {
+            geometry = new Geometry(width, height);
+            mGeometry = geometry;
         }
+        return geometry;
     }
 
-    private static Paint buildDefaultTextPaint() {
-        Paint paint = new Paint();
-        paint.setColor(DEFAULT_TEXT_COLOR);
-        paint.setTextAlign(Paint.Align.CENTER);
-        paint.setAntiAlias(true);
-        paint.setTextSize(DEFAULT_TEXT_SIZE_PX); // TODO Factor in density
-        return paint;
+    /**
+     * The waveform resolution needed to draw on a surface of the given height; the full
+     * {@link #DECODE_WIDTH}, and up to {@link #MAX_DECODE_HEIGHT} rows of amplitude.
+     */
+    public DecodeSize getDecodeSize(int surfaceHeight) {
+        return new DecodeSize(DECODE_WIDTH, Math.min(MAX_DECODE_HEIGHT, 2 * getHeightScalingFactor(surfaceHeight)));
     }
 
-    private static Paint buildDefaultWaveformPaint() {
-        Paint paint = new Paint();
-        paint.setColor(DEFAULT_WAVEFORM_COLOR);
-        paint.setAntiAlias(true);
-        return paint;
+    // The number of whole columns that fit after the first gap, each column followed by a gap
+    private int getColumnCount(int surfaceWidth) {
+        float drawableWidth = surfaceWidth - mColumnPaddingPx;
+        return Math.max(1, (int) (drawableWidth / (mColumnWidthPx + mColumnPaddingPx)));
     }
 
-    private static Paint buildDefaultBackgroundPaint() {
-        Paint paint = new Paint();
-        paint.setColor(DEFAULT_BACKGROUND_COLOR);
-        return paint;
+    private static int getHeightScalingFactor(int surfaceHeight) {
+        return Math.max(1, surfaceHeight / 3);
     }
 
     // Create a complementary shade to the provided color
-    private static int toShade(int color) {
-        float[] hsv = new float[3];
+    private int toShade(int color) {
+        float[] hsv = mHsv;
         Color.colorToHSV(color, hsv);
         hsv[1] *= 0.5;
         hsv[2] *= 1.5;
         return Color.HSVToColor(hsv);
     }
 
+    /*
+     * Layout of the columns and title for a given surface size
+     */
+    private class Geometry {
+        final int width;
+        final int height;
+        final int columns;
+        final float[] columnLefts;
+        final int centreLine;
+        final int heightScalingFactor;
+        final float titleX;
+        final float titleY;
+        final float titleMaxWidth;
+
+        Geometry(int width, int height) {
+            this.width = width;
+            this.height = height;
+
+            // The number of whole columns that fit in the drawable width with the desired column spacing
+            float drawableWidth = width - mColumnPaddingPx;
+            columns = getColumnCount(width);
+
+            // The remainder, we want to shift the columns to the centre of the available width.
+            float remainder = drawableWidth - columns * (mColumnWidthPx + mColumnPaddingPx);
+            logV(TAG, "Geometry() - width: " + width + " columns: " + columns + " remainder: " + remainder);
+
+            columnLefts = new float[columns];
+            float left = mColumnPaddingPx + remainder / 2; // initial margin
+            for (int col = 0; col < columns; col++) {
+                columnLefts[col] = left;
+                left += mColumnWidthPx + mColumnPaddingPx;
+            }
+
+            // Max height to be used by the waveform
+            heightScalingFactor = getHeightScalingFactor(height);
+            centreLine = height / 2;
+
+            titleX = width / 2f;
+            titleY = centreLine + (heightScalingFactor / 2f) + (2f * mColumnWidthPx) + TEXT_OFFSET_PX;
+            titleMaxWidth = Math.max(0f, width - 2 * TEXT_OFFSET_PX);
+        }
+    }
+
     private static void logV(String tag, String msg) {
         if (VERBOSE_LOGGING) {
             Log.v(tag, msg);
@@ -0,0 +1,95 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+/**
+ * Drives a fixed length transition from frame callbacks, only while it is running.
+ * <p/>
+ * Progress is derived from each frame's timestamp rather than counting frames, so if
+ * rendering falls behind, frames are dropped rather than queued and the transition
+ * still finishes on time.
+ */
+public class TransitionAnimator implements FrameScheduler.Callback {
+
+    public interface Listener {
+        /**
+         * @param fraction progress of the transition, from 0 to 1 inclusive
+         */
+        public void onTransitionFrame(float fraction);
+
+        public void onTransitionEnd();
+    }
+
+    private final FrameScheduler mScheduler;
+    private final Listener mListener;
+    private long mDurationNanos;
+    private long mStartTimeNanos;
+    private boolean mIsRunning;
+    private int mFrameCount;
+
+    public TransitionAnimator(FrameScheduler scheduler, Listener listener) {
+        mScheduler = scheduler;
+        mListener = listener;
+    }
+
+    /**
+     * Starts, or restarts, the transition; the first frame is at fraction 0.
+     */
+    public void start(long durationNanos) {
+        start(-1, durationNanos);
+    }
+
+    /**
+     * Starts, or restarts, the transition as if from the given time, so a transition that
+     * was described earlier still finishes on time.
+     *
+     * @param startTimeNanos in the System.nanoTime() timebase, or -1 for the first frame's time
+     */
+    public void start(long startTimeNanos, long durationNanos) {
+        mScheduler.cancelFrame();
+        mDurationNanos = Math.max(1, durationNanos);
+        mStartTimeNanos = startTimeNanos;
+        mFrameCount = 0;
+        mIsRunning = true;
+        mScheduler.scheduleFrame(this);
+    }
+
+    /**
+     * Stops the transition without any further callbacks
+     */
+    public void cancel() {
+        mScheduler.cancelFrame();
+        mIsRunning = false;
+    }
+
+    public boolean isRunning() {
+        return mIsRunning;
+    }
+
+    /**
+     * The number of frames rendered by the current, or last, transition
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mIsRunning)
+            return;
+
+        if (mStartTimeNanos < 0) {
+            mStartTimeNanos = frameTimeNanos;
+        }
+        float fraction = Math.max(0f, Math.min(1f, (float) (frameTimeNanos - mStartTimeNanos) / mDurationNanos));
+        mFrameCount++;
+        mListener.onTransitionFrame(fraction);
+        if (!mIsRunning)
+            return; // cancelled by the listener
+
+        if (fraction < 1f) {
+            mScheduler.scheduleFrame(this);
+        } else {
+            mIsRunning = false;
+            mListener.onTransitionEnd();
+        }
+    }
+}
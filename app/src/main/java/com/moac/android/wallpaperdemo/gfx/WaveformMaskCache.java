@@ -0,0 +1,193 @@
+package com.moac.android.wallpaperdemo.gfx;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.util.Log;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.api.model.WaveformPyramid;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds each track's rasterized waveform as an ALPHA_8 mask, keyed by track and surface
+ * size, so that redrawing a track is a fill, a tinted drawBitmap() and the title rather
+ * than re-rasterizing every column. The mask has no colour, so a track coming round
+ * again on a different background is still a hit.
+ * <p/>
+ * Masks are evicted least recently used first to keep within a byte budget, and their
+ * bitmaps reused for the next mask of the same size. If the budget can't hold at least
+ * two masks for the surface, the cache stands aside and tracks are drawn directly.
+ * Not thread safe; use from the drawing thread only.
+ */
+public class WaveformMaskCache {
+
+    private static final String TAG = WaveformMaskCache.class.getSimpleName();
+
+    private static final int MIN_MASKS = 2;
+
+    private final long mMaxSizeBytes;
+    // Access ordered, so iteration starts with the least recently used
+    private final LinkedHashMap<Key, Bitmap> mMasks = new LinkedHashMap<Key, Bitmap>(16, 0.75f, true);
+    private final Canvas mMaskCanvas = new Canvas(); // reused for each mask
+    // Kept from an evicted track for the next miss, counted in the size
+    private Bitmap mSpare;
+    private long mSizeBytes;
+    private int mHitCount;
+    private int mMissCount;
+
+    public WaveformMaskCache(long maxSizeBytes) {
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Draws the track with the drawer's current colour, from its cached mask if possible,
+     * otherwise rasterizing and caching the mask first.
+     */
+    public void drawOn(Canvas canvas, TrackDrawer drawer, Track track) {
+        final int width = canvas.getWidth();
+        final int height = canvas.getHeight();
+        if (!isEnabled(width, height) || !hasWaveform(track)) {
+            drawer.drawOn(canvas, track);
+            return;
+        }
+
+        Key key = new Key(track.getId(), width, height);
+        Bitmap mask = mMasks.get(key);
+        if (mask != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+            mask = obtainMask(width, height);
+            mask.eraseColor(Color.TRANSPARENT);
+            mMaskCanvas.setBitmap(mask);
+            drawer.drawWaveformMaskOn(mMaskCanvas, track);
+            mMasks.put(key, mask);
+        }
+        drawer.drawOn(canvas, track, mask);
+    }
+
+    /**
+     * True if the budget holds enough masks for a surface of this size to be worth caching
+     */
+    public boolean isEnabled(int width, int height) {
+        return MIN_MASKS * getSizeInBytes(width, height) <= mMaxSizeBytes;
+    }
+
+    /**
+     * Removes all masks for a track, keeping one bitmap spare for reuse
+     */
+    public void evict(long trackId) {
+        Iterator<Map.Entry<Key, Bitmap>> iterator = mMasks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Bitmap> entry = iterator.next();
+            if (entry.getKey().mTrackId == trackId) {
+                iterator.remove();
+                if (mSpare == null) {
+                    mSpare = entry.getValue();
+                } else {
+                    release(entry.getValue());
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        Iterator<Map.Entry<Key, Bitmap>> iterator = mMasks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            release(iterator.next().getValue());
+            iterator.remove();
+        }
+        if (mSpare != null) {
+            release(mSpare);
+            mSpare = null;
+        }
+    }
+
+    public int getHitCount() { return mHitCount; }
+
+    public int getMissCount() { return mMissCount; }
+
+    public int getMaskCount() { return mMasks.size(); }
+
+    public long getSizeInBytes() { return mSizeBytes; }
+
+    public long getMaxSizeInBytes() { return mMaxSizeBytes; }
+
+    // Reuses the spare or an evicted mask of the same size if there is one, otherwise allocates within budget
+    private Bitmap obtainMask(int width, int height) {
+        Bitmap reusable = mSpare;
+        mSpare = null;
+        if (reusable != null && !hasSize(reusable, width, height)) {
+            release(reusable);
+            reusable = null;
+        }
+
+        final long maskBytes = getSizeInBytes(width, height);
+        Iterator<Map.Entry<Key, Bitmap>> iterator = mMasks.entrySet().iterator();
+        while (reusable == null && mSizeBytes + maskBytes > mMaxSizeBytes && iterator.hasNext()) {
+            Map.Entry<Key, Bitmap> entry = iterator.next();
+            Log.v(TAG, "obtainMask() - evicting mask for track: " + entry.getKey().mTrackId);
+            iterator.remove();
+            if (hasSize(entry.getValue(), width, height)) {
+                reusable = entry.getValue();
+            } else {
+                release(entry.getValue());
+            }
+        }
+        if (reusable != null) {
+            return reusable;
+        }
+        mSizeBytes += maskBytes;
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+    }
+
+    private void release(Bitmap mask) {
+        mSizeBytes -= getSizeInBytes(mask.getWidth(), mask.getHeight());
+        mask.recycle();
+    }
+
+    private static boolean hasSize(Bitmap mask, int width, int height) {
+        return mask.getWidth() == width && mask.getHeight() == height;
+    }
+
+    private static boolean hasWaveform(Track track) {
+        WaveformPyramid pyramid = track.getWaveformPyramid();
+        return pyramid != null && pyramid.getLevelSize(0) > 0;
+    }
+
+    private static long getSizeInBytes(int width, int height) {
+        return (long) width * height; // ALPHA_8
+    }
+
+    private static class Key {
+        final long mTrackId;
+        final int mWidth;
+        final int mHeight;
+
+        Key(long trackId, int width, int height) {
+            mTrackId = trackId;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return mTrackId == key.mTrackId && mWidth == key.mWidth && mHeight == key.mHeight;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (mTrackId ^ (mTrackId >>> 32));
+            result = 31 * result + mWidth;
+            result = 31 * result + mHeight;
+            return result;
+        }
+    }
+}
@@ -12,11 +12,54 @@ public class WaveformProcessor implements BitmapProcessor {
     private static final String TAG = WaveformProcessor.class.getSimpleName();
     private static final boolean DEBUG = BuildConfig.DEBUG && false;
 
+    // Number of rows fetched per getPixels() call
+    private static final int ROWS_PER_BLOCK = 16;
+
+    /**
+     * Extracts the amplitude by fetching the top half of the bitmap in blocks of
+     * rows and scanning them in memory order, rather than a pixel at a time.
+     */
     public float[] transform(Bitmap bitmap) {
-        // TODO Test performance for extractAlpha vs Color.alpha()
         Log.i(TAG, "transform() - width: " + bitmap.getWidth());
         final int width = bitmap.getWidth();
         final float centreLine = (float) bitmap.getHeight() / 2f;
+        final int rows = (int) Math.ceil(centreLine);
+        float[] normalizedAmplitude = new float[width];
+        Arrays.fill(normalizedAmplitude, 0f); // assume no amplitude
+
+        // Columns which have already found their first transparent pixel
+        boolean[] found = new boolean[width];
+        int remaining = width;
+
+        final int blockRows = Math.min(ROWS_PER_BLOCK, Math.max(rows, 1));
+        int[] pixels = new int[width * blockRows];
+
+        for(int blockStart = 0; blockStart < rows && remaining > 0; blockStart += blockRows) {
+            final int count = Math.min(blockRows, rows - blockStart);
+            bitmap.getPixels(pixels, 0, width, 0, blockStart, width, count);
+            for(int row = 0; row < count && remaining > 0; row++) {
+                final int y = blockStart + row;
+                final int offset = row * width;
+                for(int x = 0; x < width; x++) {
+                    if(!found[x] && Color.alpha(pixels[offset + x]) == 0) {
+                        normalizedAmplitude[x] = (centreLine - y) / centreLine;
+                        found[x] = true;
+                        remaining--;
+                    }
+                }
+            }
+        }
+        return normalizedAmplitude;
+    }
+
+    /**
+     * Reference implementation; walks each column using getPixel(). Far slower
+     * than {@link #transform(android.graphics.Bitmap)}, but kept for verifying its output.
+     */
+    public float[] transformByPixel(Bitmap bitmap) {
+        Log.i(TAG, "transformByPixel() - width: " + bitmap.getWidth());
+        final int width = bitmap.getWidth();
+        final float centreLine = (float) bitmap.getHeight() / 2f;
         float[] normalizedAmplitude = new float[width];
         Arrays.fill(normalizedAmplitude, 0f); // assume no amplitude
 
@@ -24,14 +67,14 @@ public class WaveformProcessor implements BitmapProcessor {
             for(int y = 0; y < centreLine; y++) {
                 if(Color.alpha(bitmap.getPixel(x, y)) == 0) {
                     if(DEBUG)
-                        Log.v(TAG, "transform() - found transparent pixel: " + x + "/" + y);
+                        Log.v(TAG, "transformByPixel() - found transparent pixel: " + x + "/" + y);
                     normalizedAmplitude[x] = (centreLine - y) / centreLine;
                     if(DEBUG)
-                        Log.v(TAG, "transform() - normalised amp for x: " + x + " is: " + normalizedAmplitude[x]);
+                        Log.v(TAG, "transformByPixel() - normalised amp for x: " + x + " is: " + normalizedAmplitude[x]);
                     break; // next sample in x.
                 }
             }
         }
         return normalizedAmplitude;
     }
-}
\ No newline at end of file
+}
@@ -5,13 +5,26 @@ import android.content.SharedPreferences;
 import android.net.Uri;
 import android.util.Log;
 
+import com.moac.android.wallpaperdemo.FeedCursor;
 import com.moac.android.wallpaperdemo.R;
 import com.moac.android.wallpaperdemo.WallpaperApplication;
 import com.moac.android.wallpaperdemo.WallpaperDemoService;
+import com.moac.android.wallpaperdemo.api.ConditionalClient;
+import com.moac.android.wallpaperdemo.api.FallbackWaveformSource;
+import com.moac.android.wallpaperdemo.api.JsonWaveformSource;
+import com.moac.android.wallpaperdemo.api.PngWaveformSource;
 import com.moac.android.wallpaperdemo.api.ScRequestInterceptor;
 import com.moac.android.wallpaperdemo.api.SoundCloudClient;
+import com.moac.android.wallpaperdemo.api.StoredWaveformSource;
+import com.moac.android.wallpaperdemo.api.WaveformSource;
+import com.moac.android.wallpaperdemo.gfx.BitmapProcessor;
+import com.moac.android.wallpaperdemo.gfx.WaveformProcessor;
+import com.moac.android.wallpaperdemo.store.WaveformStore;
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.OkHttpClient;
 import com.squareup.picasso.Picasso;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Retention;
@@ -23,6 +36,7 @@ import javax.inject.Singleton;
 import dagger.Provides;
 import retrofit.RequestInterceptor;
 import retrofit.RestAdapter;
+import retrofit.client.OkClient;
 
 import static com.moac.android.wallpaperdemo.util.Preconditions.checkNotNull;
 import static com.moac.android.wallpaperdemo.util.Streams.closeQuietly;
@@ -32,6 +46,11 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
 public class AppModule {
 
     private static final String TAG = AppModule.class.getSimpleName();
+
+    // A couple of KB per track, so plenty of tracks to show offline
+    private static final long WAVEFORM_STORE_MAX_BYTES = 2 * 1024 * 1024;
+    private static final long HTTP_CACHE_MAX_BYTES = 1024 * 1024;
+    private static final String FEED_CURSOR_PREFERENCES = "feed_cursor";
     private final WallpaperApplication application;
 
     public AppModule(WallpaperApplication application) {
@@ -42,16 +61,34 @@ public class AppModule {
     @ApiProperties
     Properties provideApiProperties() {
         final String filename = "soundcloud.properties";
+        try {
+            return readProperties(filename);
+        } catch (IOException e) {
+            Log.e(TAG,
+                    String.format("Failed to read SoundCloud API properties file: %s. Have you forgotten to add the file to your assets dir?", filename), e);
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Provides
+    @AppProperties
+    Properties provideAppProperties() {
+        final String filename = "wallpaper.properties";
+        try {
+            return readProperties(filename);
+        } catch (IOException e) {
+            Log.e(TAG, String.format("Failed to read app properties file: %s", filename), e);
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private Properties readProperties(String filename) throws IOException {
         InputStream inputStream = null;
         try {
             inputStream = application.getAssets().open(filename);
             Properties properties = new Properties();
             properties.load(inputStream);
             return properties;
-        } catch (IOException e) {
-            Log.e(TAG,
-                    String.format("Failed to read SoundCloud API properties file: %s. Have you forgotten to add the file to your assets dir?", filename), e);
-            throw new IllegalArgumentException(e);
         } finally {
             closeQuietly(inputStream);
         }
@@ -59,7 +96,21 @@ public class AppModule {
 
     @Provides
     @Singleton
-    RestAdapter provideRestAdapter(@ApiProperties Properties apiProperties) {
+    OkHttpClient provideOkHttpClient() {
+        Log.i(TAG, "Providing OkHttpClient");
+        OkHttpClient client = new OkHttpClient();
+        try {
+            // Lets the first poll after a restart revalidate rather than download the tracks
+            client.setCache(new Cache(new File(application.getCacheDir(), "http"), HTTP_CACHE_MAX_BYTES));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to create HTTP cache, continuing without", e);
+        }
+        return client;
+    }
+
+    @Provides
+    @Singleton
+    RestAdapter provideRestAdapter(@ApiProperties Properties apiProperties, OkHttpClient client) {
         Log.i(TAG, "Providing Rest Adapter");
 
         // Get and validate required API properties
@@ -72,9 +123,9 @@ public class AppModule {
         // Add client id and JSON format to query string for every request.
         RequestInterceptor ri = new ScRequestInterceptor(clientId, "json");
 
-        // Uses GSON mapping by default.
         return new RestAdapter.Builder()
                 .setEndpoint(apiUrl)
+                .setClient(new ConditionalClient(new OkClient(client))) // unchanged polls aren't parsed
                 .setRequestInterceptor(ri)
                 .setLogLevel(RestAdapter.LogLevel.BASIC)
                 .build();
@@ -94,6 +145,42 @@ public class AppModule {
         return Picasso.with(application);
     }
 
+    @Provides
+    BitmapProcessor provideBitmapProcessor() {
+        // Exact; BinarySearchWaveformProcessor reads far fewer pixels but can miss a stray one
+        return new WaveformProcessor();
+    }
+
+    @Provides
+    @Singleton
+    WaveformSource provideWaveformSource(@AppProperties Properties appProperties, Picasso picasso,
+                                         BitmapProcessor processor, OkHttpClient client, WaveformStore store) {
+        WaveformSource pngSource = new PngWaveformSource(picasso, processor);
+        String source = appProperties.getProperty("waveform.source", "png");
+        Log.i(TAG, "Providing Waveform Source: " + source);
+        if ("json".equals(source)) {
+            // Fetch the samples directly, decode the image if that fails
+            String jsonUrl = checkNotNull(appProperties.getProperty("waveform.json.url"));
+            return new StoredWaveformSource(store, new FallbackWaveformSource(new JsonWaveformSource(client, jsonUrl), pngSource));
+        }
+        return new StoredWaveformSource(store, pngSource);
+    }
+
+    @Provides
+    @Singleton
+    WaveformStore provideWaveformStore() {
+        Log.i(TAG, "Providing Waveform Store");
+        // Opened on first use, off the main thread
+        return new WaveformStore(new File(application.getFilesDir(), "waveforms.store"), WAVEFORM_STORE_MAX_BYTES);
+    }
+
+    @Provides
+    @Singleton
+    FeedCursor provideFeedCursor() {
+        // Not in the settings file, whose listener would otherwise hear every page turn
+        return new FeedCursor(application.getSharedPreferences(FEED_CURSOR_PREFERENCES, 0));
+    }
+
     @Provides
     @Singleton
     @ForApplication
@@ -116,4 +203,9 @@ public class AppModule {
     @Retention(RUNTIME)
     private static @interface ApiProperties {
     }
+
+    @Qualifier
+    @Retention(RUNTIME)
+    private static @interface AppProperties {
+    }
 }
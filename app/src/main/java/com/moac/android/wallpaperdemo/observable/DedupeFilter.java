@@ -0,0 +1,65 @@
+package com.moac.android.wallpaperdemo.observable;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import rx.functions.Func1;
+
+/**
+ * Passes only tracks with ids that aren't already known, or already passed since the last
+ * {@link #reset()}, counting how many it passes and skips. Used before any waveform is
+ * loaded, each skip is a download and decode saved.
+ * <p/>
+ * Thread safe.
+ */
+public class DedupeFilter implements Func1<Track, Boolean> {
+
+    public interface KnownIds {
+        public boolean contains(long id);
+    }
+
+    private final KnownIds mKnownIds;
+    private final Set<Long> mPassedIds = new HashSet<Long>();
+    private int mPassedCount;
+    private int mSkippedCount;
+
+    public DedupeFilter(KnownIds knownIds) {
+        mKnownIds = knownIds;
+    }
+
+    @Override
+    public synchronized Boolean call(Track track) {
+        final long id = track.getId();
+        if (mKnownIds.contains(id) || !mPassedIds.add(id)) {
+            mSkippedCount++;
+            return false;
+        }
+        mPassedCount++;
+        return true;
+    }
+
+    /**
+     * Starts counting afresh, e.g. for each refresh
+     */
+    public synchronized void reset() {
+        mPassedIds.clear();
+        mPassedCount = 0;
+        mSkippedCount = 0;
+    }
+
+    /**
+     * Tracks passed on to be loaded since the last reset
+     */
+    public synchronized int getPassedCount() {
+        return mPassedCount;
+    }
+
+    /**
+     * Tracks skipped since the last reset, and so the downloads and decodes saved
+     */
+    public synchronized int getSkippedCount() {
+        return mSkippedCount;
+    }
+}
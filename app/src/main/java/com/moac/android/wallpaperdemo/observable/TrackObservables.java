@@ -1,51 +1,157 @@
 package com.moac.android.wallpaperdemo.observable;
 
-import android.graphics.Bitmap;
 import android.util.Log;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.moac.android.wallpaperdemo.api.WaveformSource;
 import com.moac.android.wallpaperdemo.api.model.Track;
-import com.moac.android.wallpaperdemo.gfx.WaveformProcessor;
-import com.squareup.picasso.Picasso;
+import com.moac.android.wallpaperdemo.api.model.TrackReader;
+import com.moac.android.wallpaperdemo.api.model.Waveform;
+import com.moac.android.wallpaperdemo.api.model.WaveformPyramid;
+import com.moac.android.wallpaperdemo.gfx.DecodeSize;
+import com.moac.android.wallpaperdemo.store.WaveformStore;
 
 import java.io.IOException;
-import java.util.List;
+import java.io.InputStreamReader;
 
+import retrofit.client.Response;
 import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Func0;
 import rx.functions.Func1;
 import rx.schedulers.Schedulers;
 
+import static com.moac.android.wallpaperdemo.util.Streams.closeQuietly;
+
 public class TrackObservables {
 
     private static final String TAG = TrackObservables.class.getSimpleName();
+    private static final String UTF_8 = "UTF-8";
 
-    public static Observable<Track> from(Observable<List<Track>> apiObservable, final Picasso picasso) {
-        return apiObservable.subscribeOn(Schedulers.io()).flatMap(new Func1<List<Track>, Observable<Track>>() {
+    /**
+     * Loads each track's waveform, dropping those without one or whose waveform fails to load,
+     * so one bad waveform doesn't end the rest of the batch. Tracks are taken one at a time,
+     * e.g. as parsed by {@link #fromResponse(Response)}, so that waveforms start loading before
+     * the last track has arrived. With maxConcurrent above 1, up to that many waveforms load at
+     * once, each on its own io thread, and tracks are emitted as their waveforms are loaded
+     * rather than in order.
+     *
+     * @param decodeSize   the resolution the waveforms will be drawn at, or null if unknown.
+     * @param dedupeFilter if not null, applied to each track before any waveform work
+     */
+    public static Observable<Track> fromStream(Observable<Track> trackObservable, final WaveformSource waveformSource,
+                                               final DecodeSize decodeSize, final int maxConcurrent,
+                                               final Func1<Track, Boolean> dedupeFilter) {
+        final Func1<Track, Track> loadWaveform = loadWaveform(waveformSource, decodeSize);
+        Observable<Track> unique = (dedupeFilter == null ? trackObservable : trackObservable.filter(dedupeFilter))
+                .subscribeOn(Schedulers.io());
+        if (maxConcurrent <= 1) {
+            return unique.map(loadWaveform).filter(HAS_WAVEFORM);
+        }
+        // One Observable per track, at most maxConcurrent subscribed at a time
+        return Observable.merge(unique.map(new Func1<Track, Observable<Track>>() {
             @Override
-            public Observable<Track> call(List<Track> tracks) {
-                // Process each track individually
-                return Observable.from(tracks);
+            public Observable<Track> call(Track track) {
+                return Observable.just(track).map(loadWaveform).subscribeOn(Schedulers.io());
             }
-        }).map(new Func1<Track, Track>() {
+        }), maxConcurrent).filter(HAS_WAVEFORM);
+    }
+
+    /**
+     * Emits each track in the response's JSON array as soon as it's been read, rather than
+     * once the whole body has arrived. Nothing, if the response has no body. The body is read
+     * on the subscribing thread, and closed when done.
+     */
+    public static Observable<Track> fromResponse(final Response response) {
+        return Observable.create(new Observable.OnSubscribe<Track>() {
             @Override
-            public Track call(Track track) {
-                // Attempt to fetch the image waveform bitmap
+            public void call(Subscriber<? super Track> subscriber) {
+                if (response.getBody() == null) {
+                    subscriber.onCompleted();
+                    return;
+                }
+                JsonReader reader = null;
                 try {
-                    Log.i(TAG, "Downloading waveform for track: " + track.getTitle());
-                    Bitmap bitmap = picasso.load(track.getWaveformUrl()).get();
-                    float[] waveformData = new WaveformProcessor().transform(bitmap);
-                    track.setWaveformData(waveformData);
+                    reader = new JsonReader(new InputStreamReader(response.getBody().in(), UTF_8));
+                    reader.beginArray();
+                    while (reader.hasNext() && !subscriber.isUnsubscribed()) {
+                        subscriber.onNext(TrackReader.readTrack(reader));
+                    }
+                    if (subscriber.isUnsubscribed()) {
+                        return;
+                    }
+                    reader.endArray();
+                    // Read to the end, which is when a conditional client keeps the validators
+                    if (reader.peek() != JsonToken.END_DOCUMENT) {
+                        throw new IOException("Unexpected content after tracks: " + reader.peek());
+                    }
+                    subscriber.onCompleted();
                 } catch (IOException e) {
-                    Log.w(TAG, "Failed to get Bitmap for track: " + track.getTitle(), e);
-                    // We will filter this track from the results
+                    subscriber.onError(e);
+                } catch (IllegalStateException e) {
+                    // JsonReader's complaint about unexpected tokens
+                    subscriber.onError(new IOException("Malformed tracks JSON from: " + response.getUrl(), e));
+                } catch (NumberFormatException e) {
+                    // A string where a number was expected
+                    subscriber.onError(new IOException("Malformed tracks JSON from: " + response.getUrl(), e));
+                } finally {
+                    closeQuietly(reader);
+                }
+            }
+        });
+    }
+
+    /**
+     * The most recently stored tracks, for when the API can't be reached
+     */
+    public static Observable<Track> fromStore(final WaveformStore store, final int limit) {
+        return Observable.defer(new Func0<Observable<Track>>() {
+            @Override
+            public Observable<Track> call() {
+                try {
+                    return Observable.from(store.getRecent(limit));
+                } catch (IOException e) {
+                    return Observable.error(e);
                 }
+            }
+        }).subscribeOn(Schedulers.io()).map(new Func1<Track, Track>() {
+            @Override
+            public Track call(Track track) {
+                track.setWaveformPyramid(WaveformPyramid.build(track.getWaveform()));
                 return track;
             }
-        }).filter(new Func1<Track, Boolean>() {
+        }).filter(HAS_WAVEFORM);
+    }
+
+    private static Func1<Track, Track> loadWaveform(final WaveformSource waveformSource, final DecodeSize decodeSize) {
+        return new Func1<Track, Track>() {
             @Override
-            public Boolean call(Track track) {
-                // Remove tracks with no waveform data
-                return track.getWaveformData() != null && track.getWaveformData().length != 0;
+            public Track call(Track track) {
+                // Attempt to fetch the waveform data
+                try {
+                    float[] waveformData = waveformSource.load(track, decodeSize);
+                    Waveform waveform = Waveform.quantize(waveformData);
+                    track.setWaveform(waveform);
+                    // Built once here so drawing at any width is cheap
+                    track.setWaveformPyramid(WaveformPyramid.build(waveform));
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to get waveform for track: " + track.getTitle(), e);
+                    // We will filter this track from the results
+                } catch (RuntimeException e) {
+                    // e.g. an image that isn't a waveform; would otherwise error the whole merge
+                    Log.w(TAG, "Failed to process waveform for track: " + track.getTitle(), e);
+                }
+                return track;
             }
-        });
+        };
     }
+
+    private static final Func1<Track, Boolean> HAS_WAVEFORM = new Func1<Track, Boolean>() {
+        @Override
+        public Boolean call(Track track) {
+            // Remove tracks with no waveform data
+            return track.getWaveformPyramid() != null && track.getWaveform().size() != 0;
+        }
+    };
 }
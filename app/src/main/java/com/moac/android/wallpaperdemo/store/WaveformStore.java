@@ -0,0 +1,349 @@
+package com.moac.android.wallpaperdemo.store;
+
+import android.util.Log;
+
+import com.moac.android.wallpaperdemo.api.model.Track;
+import com.moac.android.wallpaperdemo.api.model.Waveform;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static com.moac.android.wallpaperdemo.util.Streams.closeQuietly;
+
+/**
+ * A file of processed waveforms, and the track metadata needed to show them, keyed by
+ * track id, so that they survive the process being restarted.
+ * <p/>
+ * Records are only ever appended, each with a CRC of its contents, and read through a
+ * memory mapping of the file using an in-memory index of the latest record for each id.
+ * Each append is synced before it's indexed. If the process dies part way through one,
+ * the torn record fails its check when the file is next opened, and the file is truncated
+ * back to the last good record.
+ * <p/>
+ * Once the file grows beyond its size limit it's compacted; the most recently stored
+ * records that fit in half the limit are copied to a new file, which then replaces the
+ * old one with an atomic rename.
+ * <p/>
+ * The file is opened on first use. Thread safe.
+ */
+public class WaveformStore implements Closeable {
+
+    private static final String TAG = WaveformStore.class.getSimpleName();
+
+    private static final int FILE_MAGIC = 0x57465331; // "WFS1"
+    private static final int RECORD_MAGIC = 0x57465231; // "WFR1"
+    private static final int FILE_HEADER_BYTES = 4;
+    private static final int RECORD_HEADER_BYTES = 12; // magic, payload length, payload CRC
+    private static final int MAX_PAYLOAD_BYTES = 1 << 20; // guards against reading a garbage length
+    private static final String UTF_8 = "UTF-8";
+
+    private final File mFile;
+    private final long mMaxSizeBytes;
+
+    // Offset of the latest record for each id, least recently stored first
+    private final LinkedHashMap<Long, Integer> mIndex = new LinkedHashMap<Long, Integer>();
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private MappedByteBuffer mMapped;
+    private long mSize; // the end of the last good record
+    private int mCompactionCount;
+
+    public WaveformStore(File file, long maxSizeBytes) {
+        mFile = file;
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    public synchronized boolean contains(long id) throws IOException {
+        ensureOpen();
+        return mIndex.containsKey(id);
+    }
+
+    /**
+     * Returns the stored track, with its waveform but not its pyramid, or null if not stored
+     */
+    public synchronized Track get(long id) throws IOException {
+        ensureOpen();
+        Integer offset = mIndex.get(id);
+        return offset == null ? null : read(offset);
+    }
+
+    /**
+     * Returns up to limit tracks, most recently stored first
+     */
+    public synchronized List<Track> getRecent(int limit) throws IOException {
+        ensureOpen();
+        List<Integer> offsets = new ArrayList<Integer>(mIndex.values());
+        List<Track> tracks = new ArrayList<Track>(Math.min(limit, offsets.size()));
+        for (int i = offsets.size() - 1; i >= 0 && tracks.size() < limit; i--) {
+            tracks.add(read(offsets.get(i)));
+        }
+        return tracks;
+    }
+
+    /**
+     * Stores the track's metadata and the waveform, replacing any previously stored for the track
+     */
+    public synchronized void put(Track track, Waveform waveform) throws IOException {
+        ensureOpen();
+        ByteBuffer record = encode(track, waveform);
+        final long offset = mSize;
+        if (offset + record.remaining() > Integer.MAX_VALUE)
+            throw new IOException("Store file too large: " + mFile);
+
+        while (record.hasRemaining()) {
+            mChannel.write(record, mSize + record.position());
+        }
+        // Only index what's known to be on disk
+        mChannel.force(false);
+        mSize = offset + record.limit();
+        mIndex.remove(track.getId());
+        mIndex.put(track.getId(), (int) offset);
+
+        if (mSize > mMaxSizeBytes) {
+            compact();
+        }
+    }
+
+    public synchronized int size() throws IOException {
+        ensureOpen();
+        return mIndex.size();
+    }
+
+    public synchronized long getFileSizeInBytes() throws IOException {
+        ensureOpen();
+        return mSize;
+    }
+
+    public synchronized int getCompactionCount() {
+        return mCompactionCount;
+    }
+
+    @Override
+    public synchronized void close() {
+        closeQuietly(mRandomAccessFile);
+        mRandomAccessFile = null;
+        mChannel = null;
+        mMapped = null;
+        mIndex.clear();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mChannel == null) {
+            open();
+        }
+    }
+
+    private void open() throws IOException {
+        // Left over from a compaction that didn't finish; the original is intact
+        File compacting = getCompactionFile();
+        if (compacting.exists() && !compacting.delete()) {
+            Log.w(TAG, "open() - failed to delete: " + compacting);
+        }
+
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        mIndex.clear();
+        try {
+            long length = mChannel.size();
+            if (length < FILE_HEADER_BYTES || mRandomAccessFile.readInt() != FILE_MAGIC) {
+                if (length > 0) {
+                    Log.w(TAG, "open() - not a waveform store, starting again: " + mFile);
+                }
+                mChannel.truncate(0);
+                writeHeader(mChannel);
+                mSize = FILE_HEADER_BYTES;
+                return;
+            }
+            mSize = scan(length);
+            if (mSize < length) {
+                Log.w(TAG, "open() - discarding " + (length - mSize) + " bytes after the last good record");
+                mChannel.truncate(mSize);
+                mChannel.force(false);
+            }
+            Log.i(TAG, "open() - records: " + mIndex.size() + " bytes: " + mSize);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Indexes every good record, returning the offset of the first that isn't
+    private long scan(long length) throws IOException {
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("Store file too large: " + mFile);
+        ByteBuffer buffer = map(length);
+        CRC32 crc = new CRC32();
+        byte[] payload = new byte[0];
+        int offset = FILE_HEADER_BYTES;
+        while (offset + RECORD_HEADER_BYTES <= length) {
+            int magic = buffer.getInt(offset);
+            int payloadLength = buffer.getInt(offset + 4);
+            int expectedCrc = buffer.getInt(offset + 8);
+            if (magic != RECORD_MAGIC || payloadLength < 8 || payloadLength > MAX_PAYLOAD_BYTES
+                    || offset + RECORD_HEADER_BYTES + payloadLength > length) {
+                break;
+            }
+            if (payload.length < payloadLength) {
+                payload = new byte[payloadLength];
+            }
+            buffer.position(offset + RECORD_HEADER_BYTES);
+            buffer.get(payload, 0, payloadLength);
+            crc.reset();
+            crc.update(payload, 0, payloadLength);
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            long id = buffer.getLong(offset + RECORD_HEADER_BYTES);
+            mIndex.remove(id);
+            mIndex.put(id, offset);
+            offset += RECORD_HEADER_BYTES + payloadLength;
+        }
+        return offset;
+    }
+
+    private Track read(int offset) throws IOException {
+        ByteBuffer buffer = map(mSize);
+        buffer.position(offset + RECORD_HEADER_BYTES);
+        long id = buffer.getLong();
+        String title = readString(buffer);
+        String permalinkUrl = readString(buffer);
+        byte[] amplitudes = new byte[buffer.getInt()];
+        buffer.get(amplitudes);
+
+        Track track = new Track(id, title, permalinkUrl);
+        track.setWaveform(Waveform.fromQuantized(amplitudes));
+        return track;
+    }
+
+    // Maps at least the first length bytes of the file, remapping only when it has grown
+    private ByteBuffer map(long length) throws IOException {
+        if (mMapped == null || mMapped.capacity() < length) {
+            mMapped = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        return mMapped;
+    }
+
+    private void compact() throws IOException {
+        final long target = mMaxSizeBytes / 2;
+        ByteBuffer buffer = map(mSize);
+
+        // Keep the most recently stored that fit
+        List<Integer> offsets = new ArrayList<Integer>(mIndex.values());
+        List<Integer> kept = new ArrayList<Integer>();
+        long keptBytes = FILE_HEADER_BYTES;
+        for (int i = offsets.size() - 1; i >= 0; i--) {
+            int recordBytes = RECORD_HEADER_BYTES + buffer.getInt(offsets.get(i) + 4);
+            if (keptBytes + recordBytes > target) {
+                break;
+            }
+            kept.add(0, offsets.get(i));
+            keptBytes += recordBytes;
+        }
+
+        File compacting = getCompactionFile();
+        RandomAccessFile out = new RandomAccessFile(compacting, "rw");
+        try {
+            FileChannel channel = out.getChannel();
+            channel.truncate(0);
+            writeHeader(channel);
+            for (Integer offset : kept) {
+                ByteBuffer record = buffer.duplicate();
+                record.position(offset);
+                record.limit(offset + RECORD_HEADER_BYTES + buffer.getInt(offset + 4));
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+            channel.force(true);
+        } finally {
+            closeQuietly(out);
+        }
+
+        close();
+        if (!compacting.renameTo(mFile))
+            throw new IOException("Failed to replace store file: " + mFile);
+        mCompactionCount++;
+        Log.i(TAG, "compact() - kept: " + kept.size() + " of: " + offsets.size() + " records");
+        open();
+    }
+
+    private File getCompactionFile() {
+        return new File(mFile.getPath() + ".compact");
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+        header.putInt(FILE_MAGIC);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(true);
+    }
+
+    /*
+     * Record layout, big endian -
+     * magic (int), payload length (int), payload CRC32 (int), then the payload:
+     * id (long), title (string), permalink (string), waveform length (int), waveform bytes
+     * where a string is its UTF-8 length (int, -1 for null) then its bytes.
+     */
+    private static ByteBuffer encode(Track track, Waveform waveform) throws UnsupportedEncodingException {
+        byte[] title = toBytes(track.getTitle());
+        byte[] permalinkUrl = toBytes(track.getPermalinkUrl());
+        byte[] amplitudes = waveform.toQuantized();
+        int payloadLength = 8 + 4 + length(title) + 4 + length(permalinkUrl) + 4 + amplitudes.length;
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payloadLength);
+        record.putInt(RECORD_MAGIC);
+        record.putInt(payloadLength);
+        record.putInt(0); // CRC, once the payload is written
+        record.putLong(track.getId());
+        putBytes(record, title);
+        putBytes(record, permalinkUrl);
+        putBytes(record, amplitudes);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_BYTES, payloadLength);
+        record.putInt(8, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static byte[] toBytes(String value) throws UnsupportedEncodingException {
+        return value == null ? null : value.getBytes(UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) throws UnsupportedEncodingException {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
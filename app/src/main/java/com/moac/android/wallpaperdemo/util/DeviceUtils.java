@@ -1,7 +1,12 @@
 package com.moac.android.wallpaperdemo.util;
 
+import android.app.ActivityManager;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
 import android.os.Build;
 
 public class DeviceUtils {
@@ -17,4 +22,27 @@ public class DeviceUtils {
                 connMgr.getActiveNetworkInfo() != null
                         && connMgr.getActiveNetworkInfo().isConnectedOrConnecting();
     }
+
+    // Helper - Return true if the active network isn't charged by the byte, e.g. Wi-Fi.
+    public static boolean isNetworkUnmetered(Context context) {
+        ConnectivityManager connMgr = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return !connMgr.isActiveNetworkMetered();
+        }
+        NetworkInfo info = connMgr.getActiveNetworkInfo();
+        return info != null && (info.getType() == ConnectivityManager.TYPE_WIFI
+                || info.getType() == ConnectivityManager.TYPE_ETHERNET);
+    }
+
+    // Helper - Return true if the device is plugged in. Reads the sticky battery broadcast, no receiver needed.
+    public static boolean isCharging(Context context) {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    // Helper - Return the approximate per-application memory limit in bytes
+    public static long getMemoryClassBytes(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager.getMemoryClass() * 1024L * 1024L;
+    }
 }